@@ -0,0 +1,29 @@
+package com.berkebakar.AstCreator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Properties;
+
+// Inputs shared by the benchmarks: the default config.properties of the build and generated methods
+public final class BenchmarkInputs {
+    private BenchmarkInputs() {
+    }
+
+    public static AstConfig config(boolean includeExpressions, String renderEngine) {
+        Properties properties = new Properties();
+        try (InputStream inputStream = BenchmarkInputs.class.getResourceAsStream("/config.properties")) {
+            properties.load(inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        properties.setProperty("output.includeExpressions", Boolean.toString(includeExpressions));
+        properties.setProperty("render.engine", renderEngine);
+        return AstConfig.fromProperties(properties);
+    }
+
+    // the same method for every run of a size
+    public static char[] source(SyntheticCorpus.Size size) {
+        return SyntheticCorpus.method(size, 42).toCharArray();
+    }
+}
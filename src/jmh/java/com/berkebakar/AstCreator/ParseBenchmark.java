@@ -0,0 +1,37 @@
+package com.berkebakar.AstCreator;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// ASTParser.createAST of one method through ParserSession, like AstCreator parses every input file.
+// output.includeExpressions is only applied by the visitor, so it is not a parameter here.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseBenchmark {
+    @Param({"SMALL", "MEDIUM", "PATHOLOGICAL"})
+    public SyntheticCorpus.Size size;
+
+    @Param({"SYNTAX", "BINDINGS"})
+    public AstConfig.ParseMode parseMode;
+
+    private ParserSession parserSession;
+    private char[] source;
+
+    @Setup
+    public void setUp() {
+        parserSession = new ParserSession(parseMode);
+        source = BenchmarkInputs.source(size);
+    }
+
+    @Benchmark
+    public ASTNode parse() {
+        return parserSession.parse(source, ASTParser.K_CLASS_BODY_DECLARATIONS, null);
+    }
+}
@@ -0,0 +1,68 @@
+package com.berkebakar.AstCreator;
+
+import guru.nidi.graphviz.engine.Format;
+import guru.nidi.graphviz.engine.Graphviz;
+import guru.nidi.graphviz.engine.GraphvizV8Engine;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+// Rendering the AstGraph of a method into an image without encoding it, with Graphviz in J2V8 and with the built-in
+// TreeRenderer of render.engine=java. Graphviz layouts take up to seconds, so each measurement is a single call.
+// J2V8 fails on pathological methods because its Graphviz build cannot grow beyond 16 MB of memory, JMH reports
+// that combination as an error and goes on with the others.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class RenderBenchmark {
+    @Param({"SMALL", "MEDIUM", "PATHOLOGICAL"})
+    public SyntheticCorpus.Size size;
+
+    @Param({"true", "false"})
+    public boolean includeExpressions;
+
+    @Param({"j2v8", "java"})
+    public String renderEngine;
+
+    private AstConfig config;
+    private AstGraph graph;
+    private TreeRenderer treeRenderer;
+
+    @Setup
+    public void setUp() {
+        config = BenchmarkInputs.config(includeExpressions, renderEngine);
+        GraphicalAstVisitor visitor = new GraphicalAstVisitor(config);
+        new ParserSession(AstConfig.ParseMode.SYNTAX)
+                .parse(BenchmarkInputs.source(size), ASTParser.K_CLASS_BODY_DECLARATIONS, null)
+                .accept(visitor);
+        graph = visitor.getGraph();
+        if (config.getRenderEngine() == AstConfig.RenderEngine.J2V8) {
+            Graphviz.useEngine(new GraphvizV8Engine());
+        } else {
+            treeRenderer = new TreeRenderer(config.getOutputWidth(), config.getOutputHeight());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (config.getRenderEngine() == AstConfig.RenderEngine.J2V8) {
+            Graphviz.releaseEngine();
+        }
+    }
+
+    @Benchmark
+    public BufferedImage render() {
+        if (treeRenderer != null) {
+            return treeRenderer.render(graph, config);
+        }
+        return Graphviz.fromGraph(graph.toMutableGraph(config))
+                .width(config.getOutputWidth())
+                .height(config.getOutputHeight())
+                .render(Format.PNG).toImage();
+    }
+}
@@ -0,0 +1,138 @@
+package com.berkebakar.AstCreator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+// Generates Java methods in the input format of AstCreator4j (a method without a class around it) from a fixed seed,
+// so benchmarks and corpora are the same on every machine and need no downloaded dataset.
+// Methods mix declarations, calls, lambdas, conditions, loops and try blocks nested up to MAX_DEPTH levels, they are
+// valid syntax but variables are picked at random, so they do not compile.
+// Run main to write a corpus for the command line: ./gradlew generateCorpus -Pcorpus.dir=... -Pcorpus.count=...
+public final class SyntheticCorpus {
+    private static final int MAX_DEPTH = 4;
+
+    // statements of each method size, about 60, 600 and 10000 JDT nodes
+    public enum Size {
+        SMALL(4),
+        MEDIUM(62),
+        PATHOLOGICAL(1100);
+
+        private final int statements;
+
+        Size(int statements) {
+            this.statements = statements;
+        }
+
+        public int getStatements() {
+            return statements;
+        }
+    }
+
+    private final Random random;
+    private final StringBuilder source = new StringBuilder();
+    private int remainingStatements;
+    private int variableCount;
+
+    private SyntheticCorpus(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public static String method(Size size, long seed) {
+        return new SyntheticCorpus(seed).generate("method" + seed, size.getStatements());
+    }
+
+    private String generate(String name, int statements) {
+        remainingStatements = statements;
+        variableCount = 0;
+        source.append("public int ").append(name).append("(int a, int b, java.util.List<String> list) {\n");
+        while (remainingStatements > 0) {
+            appendStatement(1);
+        }
+        source.append("    return ").append(variable()).append(";\n}\n");
+        return source.toString();
+    }
+
+    private void appendStatement(int depth) {
+        remainingStatements--;
+        String indent = "    ".repeat(depth);
+        int kind = depth < MAX_DEPTH ? random.nextInt(9) : random.nextInt(4);
+        switch (kind) {
+            case 0 -> source.append(indent).append("int v").append(variableCount++).append(" = ")
+                    .append(variable()).append(" + ").append(random.nextInt(100)).append(" * b;\n");
+            case 1 -> source.append(indent).append("list.add(String.valueOf(").append(variable()).append("));\n");
+            case 2 -> source.append(indent).append("a = Math.max(a, ").append(variable()).append(" - ").append(random.nextInt(10)).append(");\n");
+            case 3 -> source.append(indent).append("Runnable r").append(variableCount++).append(" = () -> System.out.println(")
+                    .append(variable()).append(");\n");
+            case 4 -> {
+                source.append(indent).append("if (").append(variable()).append(" > ").append(random.nextInt(100)).append(") {\n");
+                appendBlock(depth);
+                source.append(indent).append("} else {\n");
+                appendBlock(depth);
+                source.append(indent).append("}\n");
+            }
+            case 5 -> {
+                String counter = "i" + variableCount++;
+                source.append(indent).append("for (int ").append(counter).append(" = 0; ").append(counter).append(" < b; ")
+                        .append(counter).append("++) {\n");
+                appendBlock(depth);
+                source.append(indent).append("}\n");
+            }
+            case 6 -> {
+                source.append(indent).append("while (a < ").append(random.nextInt(1000)).append(") {\n");
+                appendBlock(depth);
+                source.append(indent).append("}\n");
+            }
+            case 7 -> {
+                source.append(indent).append("try {\n");
+                appendBlock(depth);
+                source.append(indent).append("} catch (IllegalStateException e) {\n");
+                appendBlock(depth);
+                source.append(indent).append("}\n");
+            }
+            default -> {
+                source.append(indent).append("for (String s : list) {\n");
+                appendBlock(depth);
+                source.append(indent).append("}\n");
+            }
+        }
+    }
+
+    // one to three statements taken from the remaining ones, so nesting does not make methods larger
+    private void appendBlock(int depth) {
+        int statements = 1 + random.nextInt(3);
+        for (int i = 0; i < statements && remainingStatements > 0; i++) {
+            appendStatement(depth + 1);
+        }
+    }
+
+    private String variable() {
+        if (variableCount == 0 || random.nextInt(4) == 0) {
+            return random.nextBoolean() ? "a" : "b";
+        }
+        return "v" + random.nextInt(variableCount);
+    }
+
+    // arguments: output directory, number of methods (default 1000) and seed (default 0)
+    // sizes are mostly small and medium with a few pathological methods, like in real datasets
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: SyntheticCorpus <outputDir> [count] [seed]");
+            System.exit(1);
+        }
+        Path outputPath = Paths.get(args[0]);
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+
+        Files.createDirectories(outputPath);
+        Random sizes = new Random(seed);
+        for (int i = 0; i < count; i++) {
+            int roll = sizes.nextInt(100);
+            Size size = roll < 70 ? Size.SMALL : roll < 99 ? Size.MEDIUM : Size.PATHOLOGICAL;
+            Files.writeString(outputPath.resolve(String.format("synthetic%06d.java", i)), method(size, seed + i));
+        }
+        System.out.println("Generated " + count + " methods in " + outputPath);
+    }
+}
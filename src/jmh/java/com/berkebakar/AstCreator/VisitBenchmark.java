@@ -0,0 +1,39 @@
+package com.berkebakar.AstCreator;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// GraphicalAstVisitor building the AstGraph of an already parsed method
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class VisitBenchmark {
+    @Param({"SMALL", "MEDIUM", "PATHOLOGICAL"})
+    public SyntheticCorpus.Size size;
+
+    @Param({"true", "false"})
+    public boolean includeExpressions;
+
+    private AstConfig config;
+    private ASTNode method;
+
+    @Setup
+    public void setUp() {
+        config = BenchmarkInputs.config(includeExpressions, "java");
+        method = new ParserSession(AstConfig.ParseMode.SYNTAX)
+                .parse(BenchmarkInputs.source(size), ASTParser.K_CLASS_BODY_DECLARATIONS, null);
+    }
+
+    @Benchmark
+    public AstGraph visit() {
+        GraphicalAstVisitor visitor = new GraphicalAstVisitor(config);
+        method.accept(visitor);
+        return visitor.getGraph();
+    }
+}
@@ -0,0 +1,549 @@
+package com.berkebakar.AstCreator;
+
+import guru.nidi.graphviz.attribute.Color;
+import guru.nidi.graphviz.attribute.ForNode;
+import guru.nidi.graphviz.attribute.Shape;
+import guru.nidi.graphviz.attribute.Size;
+import guru.nidi.graphviz.attribute.Style;
+import org.eclipse.jdt.core.dom.ASTNode;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+// Settings of config.properties resolved once, so visitors do not touch Properties while walking the AST.
+// Instances are immutable and can be shared between files and threads.
+public final class AstConfig {
+    private final NodeStyle[] nodeStyles; // indexed by ASTNode.getNodeType()
+    private final boolean detailed;
+    private final boolean expressionsIncluded;
+    private final int outputWidth;
+    private final int outputHeight;
+    private final OutputFormat outputFormat;
+    private final OutputLayout outputLayout;
+    private final long maxShardBytes;
+    private final boolean incremental;
+    private final String configHash; // of all properties, see IncrementalManifest
+    private final ParseMode parseMode;
+    private final ParseUnit parseUnit;
+    private final boolean constructorsIncluded;
+    private final boolean lambdasIncluded;
+    private final int parseBatchSize;
+    private final RenderEngine renderEngine;
+    private final String dotCommand;
+    private final long renderTimeoutMillis;
+    private final long renderCacheBytes;
+    private final boolean renderCacheHardLinks;
+    private final boolean metricsEnabled;
+    private final long metricsIntervalSeconds;
+    private final boolean metricsJfr;
+    private final boolean perFileLogging;
+    private final int pipelineIoThreads;
+    private final boolean datasetsIncluded;
+    private final String jsonlSourceField;
+    private final String jsonlNameField;
+    private final long maxSourceBytes;
+    private final int maxNodes;
+    private final BudgetAction budgetAction;
+    private final int tokenVocabularySize;
+    private final int pathVocabularySize;
+    private final int maxPathLength;
+    private final int maxPathWidth;
+    private final Path vocabularyPath;
+
+    private AstConfig(Builder builder) {
+        this.nodeStyles = builder.nodeStyles;
+        this.detailed = builder.detailed;
+        this.expressionsIncluded = builder.expressionsIncluded;
+        this.outputWidth = builder.outputWidth;
+        this.outputHeight = builder.outputHeight;
+        this.outputFormat = builder.outputFormat;
+        this.outputLayout = builder.outputLayout;
+        this.maxShardBytes = builder.maxShardBytes;
+        this.incremental = builder.incremental;
+        this.configHash = builder.configHash;
+        this.parseMode = builder.parseMode;
+        this.parseUnit = builder.parseUnit;
+        this.constructorsIncluded = builder.constructorsIncluded;
+        this.lambdasIncluded = builder.lambdasIncluded;
+        this.parseBatchSize = builder.parseBatchSize;
+        this.renderEngine = builder.renderEngine;
+        this.dotCommand = builder.dotCommand;
+        this.renderTimeoutMillis = builder.renderTimeoutMillis;
+        this.renderCacheBytes = builder.renderCacheBytes;
+        this.renderCacheHardLinks = builder.renderCacheHardLinks;
+        this.metricsEnabled = builder.metricsEnabled;
+        this.metricsIntervalSeconds = builder.metricsIntervalSeconds;
+        this.metricsJfr = builder.metricsJfr;
+        this.perFileLogging = builder.perFileLogging;
+        this.pipelineIoThreads = builder.pipelineIoThreads;
+        this.datasetsIncluded = builder.datasetsIncluded;
+        this.jsonlSourceField = builder.jsonlSourceField;
+        this.jsonlNameField = builder.jsonlNameField;
+        this.maxSourceBytes = builder.maxSourceBytes;
+        this.maxNodes = builder.maxNodes;
+        this.budgetAction = builder.budgetAction;
+        this.tokenVocabularySize = builder.tokenVocabularySize;
+        this.pathVocabularySize = builder.pathVocabularySize;
+        this.maxPathLength = builder.maxPathLength;
+        this.maxPathWidth = builder.maxPathWidth;
+        this.vocabularyPath = builder.vocabularyPath;
+    }
+
+    // throws IllegalArgumentException naming the setting and its allowed values if a value is invalid
+    public static AstConfig fromProperties(Properties properties) {
+        Settings settings = new Settings(properties);
+        int nodeWidth = settings.getInt("output.nodeWidth", "2", 0);
+        int nodeHeight = settings.getInt("output.nodeHeight", "2", 0);
+        boolean fill = settings.getBoolean("output.fillNodes", "true");
+        Size size = Size.mode(Size.Mode.FIXED).size(nodeWidth, nodeHeight);
+        Style<? extends ForNode> style = fill ? Style.FILLED : Style.SOLID;
+
+        List<NodeStyle> nodeStyles = new ArrayList<>();
+        nodeStyles.add(null); // node types start from 1
+        for (int nodeType = 1; ; nodeType++) {
+            Class<?> nodeClass;
+            try {
+                nodeClass = ASTNode.nodeClassForType(nodeType);
+            } catch (IllegalArgumentException e) { // no more node types
+                break;
+            }
+
+            String name = nodeClass.getSimpleName();
+            Color color = Color.named(properties.getProperty(name + ".color", "white"));
+            nodeStyles.add(new NodeStyle(
+                    name,
+                    !properties.getProperty(name + ".visit", "false").equals("false"),
+                    ShapeMap.getShape(properties.getProperty(name + ".shape", "box")),
+                    fill ? color.fill() : color,
+                    style,
+                    size
+            ));
+        }
+
+        Builder builder = new Builder();
+        builder.nodeStyles = nodeStyles.toArray(new NodeStyle[0]);
+        builder.detailed = settings.getBoolean("output.detailed", "false");
+        builder.expressionsIncluded = settings.getBoolean("output.includeExpressions", "true");
+        builder.outputWidth = settings.getInt("output.width", "224", 1);
+        builder.outputHeight = settings.getInt("output.height", "224", 1);
+        builder.outputFormat = settings.getChoice("output.format", "png", Map.of(
+                "png", OutputFormat.PNG,
+                "npy", OutputFormat.NPY,
+                "json", OutputFormat.JSON,
+                "dot", OutputFormat.DOT,
+                "graphml", OutputFormat.GRAPHML,
+                "edgelist", OutputFormat.EDGELIST,
+                "sbt", OutputFormat.SBT,
+                "paths", OutputFormat.PATHS));
+        builder.outputLayout = settings.getChoice("output.layout", "files",
+                Map.of("files", OutputLayout.FILES, "shard", OutputLayout.SHARD, "tar", OutputLayout.TAR));
+        builder.maxShardBytes = settings.getMegabytes("output.shardSizeMB", "1024", 1);
+        builder.incremental = settings.getBoolean("output.incremental", "false");
+        builder.configHash = IncrementalManifest.hashConfig(properties);
+        builder.parseMode = settings.getChoice("parse.mode", "syntax",
+                Map.of("syntax", ParseMode.SYNTAX, "bindings", ParseMode.BINDINGS));
+        builder.parseUnit = settings.getChoice("parse.unit", "snippet",
+                Map.of("snippet", ParseUnit.SNIPPET, "compilationUnit", ParseUnit.COMPILATION_UNIT));
+        builder.constructorsIncluded = settings.getBoolean("parse.includeConstructors", "true");
+        builder.lambdasIncluded = settings.getBoolean("parse.includeLambdas", "false");
+        builder.parseBatchSize = settings.getInt("parse.batchSize", "0", 0);
+        builder.renderEngine = settings.getChoice("render.engine", "j2v8",
+                Map.of("j2v8", RenderEngine.J2V8, "cmdline", RenderEngine.CMDLINE, "java", RenderEngine.JAVA));
+        builder.dotCommand = properties.getProperty("render.dotCommand", "dot");
+        builder.renderTimeoutMillis = settings.getLong("render.timeoutMillis", "60000", 1);
+        builder.renderCacheBytes = settings.getMegabytes("render.cacheSizeMB", "64", 0);
+        builder.renderCacheHardLinks = settings.getBoolean("render.cacheHardLinks", "false");
+        builder.metricsEnabled = settings.getBoolean("metrics.enabled", "false");
+        builder.metricsIntervalSeconds = settings.getLong("metrics.intervalSeconds", "10", 0);
+        builder.metricsJfr = settings.getBoolean("metrics.jfr", "false");
+        builder.perFileLogging = settings.getBoolean("log.perFile", "true");
+        builder.pipelineIoThreads = settings.getInt("pipeline.ioThreads", "0", 0);
+        builder.datasetsIncluded = settings.getBoolean("input.datasets", "false");
+        builder.jsonlSourceField = properties.getProperty("input.jsonlSourceField", "code");
+        builder.jsonlNameField = properties.getProperty("input.jsonlNameField", "name");
+        builder.maxSourceBytes = settings.getLong("budget.maxSourceBytes", "0", 0);
+        builder.maxNodes = settings.getInt("budget.maxNodes", "0", 0);
+        builder.budgetAction = settings.getChoice("budget.onExceeded", "degrade",
+                Map.of("degrade", BudgetAction.DEGRADE, "skip", BudgetAction.SKIP));
+        builder.tokenVocabularySize = settings.getInt("tokens.vocabularySize", "50000", 0);
+        builder.pathVocabularySize = settings.getInt("tokens.pathVocabularySize", "50000", 0);
+        builder.maxPathLength = settings.getInt("tokens.maxPathLength", "8", 1);
+        builder.maxPathWidth = settings.getInt("tokens.maxPathWidth", "2", 1);
+        String vocabularyPath = properties.getProperty("tokens.vocabulary", "");
+        builder.vocabularyPath = vocabularyPath.isEmpty() ? null : Path.of(vocabularyPath);
+        return new AstConfig(builder);
+    }
+
+    public NodeStyle getNodeStyle(int nodeType) {
+        return nodeStyles[nodeType];
+    }
+
+    public boolean isDetailed() {
+        return detailed;
+    }
+
+    public boolean isExpressionsIncluded() {
+        return expressionsIncluded;
+    }
+
+    public int getOutputWidth() {
+        return outputWidth;
+    }
+
+    public int getOutputHeight() {
+        return outputHeight;
+    }
+
+    public OutputFormat getOutputFormat() {
+        return outputFormat;
+    }
+
+    public OutputLayout getOutputLayout() {
+        return outputLayout;
+    }
+
+    public long getMaxShardBytes() {
+        return maxShardBytes;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public String getConfigHash() {
+        return configHash;
+    }
+
+    public ParseMode getParseMode() {
+        return parseMode;
+    }
+
+    public ParseUnit getParseUnit() {
+        return parseUnit;
+    }
+
+    public boolean isConstructorsIncluded() {
+        return constructorsIncluded;
+    }
+
+    public boolean isLambdasIncluded() {
+        return lambdasIncluded;
+    }
+
+    // files per ASTParser.createASTs call with parse.unit=compilationUnit, 0 parses each file on its own
+    public int getParseBatchSize() {
+        return parseBatchSize;
+    }
+
+    public RenderEngine getRenderEngine() {
+        return renderEngine;
+    }
+
+    public String getDotCommand() {
+        return dotCommand;
+    }
+
+    public long getRenderTimeoutMillis() {
+        return renderTimeoutMillis;
+    }
+
+    public long getRenderCacheBytes() {
+        return renderCacheBytes;
+    }
+
+    public boolean isRenderCacheHardLinks() {
+        return renderCacheHardLinks;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    public long getMetricsIntervalSeconds() {
+        return metricsIntervalSeconds;
+    }
+
+    public boolean isMetricsJfr() {
+        return metricsJfr;
+    }
+
+    public boolean isPerFileLogging() {
+        return perFileLogging;
+    }
+
+    // 0 runs every stage of a file on the same thread
+    public int getPipelineIoThreads() {
+        return pipelineIoThreads;
+    }
+
+    // also read .tar, .zip and .jsonl datasets found under -d, see DatasetReader
+    public boolean isDatasetsIncluded() {
+        return datasetsIncluded;
+    }
+
+    public String getJsonlSourceField() {
+        return jsonlSourceField;
+    }
+
+    public String getJsonlNameField() {
+        return jsonlNameField;
+    }
+
+    // budget.* limits, 0 for no limit
+    public long getMaxSourceBytes() {
+        return maxSourceBytes;
+    }
+
+    public int getMaxNodes() {
+        return maxNodes;
+    }
+
+    public BudgetAction getBudgetAction() {
+        return budgetAction;
+    }
+
+    // tokens.* of output.format=sbt and paths: the most frequent tokens and paths kept by Vocabulary.Builder
+    public int getTokenVocabularySize() {
+        return tokenVocabularySize;
+    }
+
+    public int getPathVocabularySize() {
+        return pathVocabularySize;
+    }
+
+    // edges of a path between two leaves, and the children of their common ancestor from one leaf to the other
+    public int getMaxPathLength() {
+        return maxPathLength;
+    }
+
+    public int getMaxPathWidth() {
+        return maxPathWidth;
+    }
+
+    // directory with the vocabulary files of an earlier run to use instead of building one, null if not set
+    public Path getVocabularyPath() {
+        return vocabularyPath;
+    }
+
+    public enum OutputFormat {
+        PNG(".png"), // one image file per AST
+        NPY(".npy"), // uint8 RGB arrays that numpy can load without decoding images, see NpyFormat
+        // graph formats are written by GraphExporter without rendering
+        JSON(".json"),
+        DOT(".dot"),
+        GRAPHML(".graphml"),
+        EDGELIST(".edges"),
+        // token ids of the Vocabulary built over the corpus, written by TokenExporter
+        SBT(".sbt"),
+        PATHS(".paths");
+
+        private final String extension;
+
+        OutputFormat(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public boolean isImage() {
+            return this == PNG || this == NPY;
+        }
+
+        public boolean isTokens() {
+            return this == SBT || this == PATHS;
+        }
+    }
+
+    public enum OutputLayout {
+        FILES, // one output file per input file
+        SHARD, // all ASTs appended into one array with an index, for output.format=npy (NpyShardWriter), sbt and paths (TokenShardWriter)
+        TAR // output files streamed into rolling tar shards with a manifest, see TarShardWriter
+    }
+
+    public enum ParseMode {
+        SYNTAX, // only the syntax tree, which is all GraphicalAstVisitor needs
+        BINDINGS // also resolve and recover bindings
+    }
+
+    public enum ParseUnit {
+        SNIPPET, // each file only contains class body declarations, usually one method, and is one AST
+        COMPILATION_UNIT // each file is a whole Java file with one AST per method, see MethodExtractor
+    }
+
+    // what happens to an AST with more than budget.maxNodes nodes
+    public enum BudgetAction {
+        DEGRADE, // visited again without expressions, skipped if it is still too large
+        SKIP
+    }
+
+    public enum RenderEngine {
+        J2V8, // viz.js running in an embedded V8 engine, one per thread
+        CMDLINE, // pool of local dot processes, see DotProcessEngine
+        JAVA // built-in tree layout without Graphviz, see TreeRenderer
+    }
+
+    public record NodeStyle(String name, boolean visited, Shape shape, Color color, Style<? extends ForNode> style, Size size) {
+    }
+
+    // the settings of an AstConfig while fromProperties reads them
+    private static final class Builder {
+        private NodeStyle[] nodeStyles;
+        private boolean detailed;
+        private boolean expressionsIncluded;
+        private int outputWidth;
+        private int outputHeight;
+        private OutputFormat outputFormat;
+        private OutputLayout outputLayout;
+        private long maxShardBytes;
+        private boolean incremental;
+        private String configHash;
+        private ParseMode parseMode;
+        private ParseUnit parseUnit;
+        private boolean constructorsIncluded;
+        private boolean lambdasIncluded;
+        private int parseBatchSize;
+        private RenderEngine renderEngine;
+        private String dotCommand;
+        private long renderTimeoutMillis;
+        private long renderCacheBytes;
+        private boolean renderCacheHardLinks;
+        private boolean metricsEnabled;
+        private long metricsIntervalSeconds;
+        private boolean metricsJfr;
+        private boolean perFileLogging;
+        private int pipelineIoThreads;
+        private boolean datasetsIncluded;
+        private String jsonlSourceField;
+        private String jsonlNameField;
+        private long maxSourceBytes;
+        private int maxNodes;
+        private BudgetAction budgetAction;
+        private int tokenVocabularySize;
+        private int pathVocabularySize;
+        private int maxPathLength;
+        private int maxPathWidth;
+        private Path vocabularyPath;
+    }
+
+    // typed values of config.properties, invalid ones are rejected with the setting they are given for
+    private record Settings(Properties properties) {
+        boolean getBoolean(String key, String defaultValue) {
+            return getChoice(key, defaultValue, Map.of("true", true, "false", false));
+        }
+
+        int getInt(String key, String defaultValue, int min) {
+            return (int) getLong(key, defaultValue, min, Integer.MAX_VALUE);
+        }
+
+        long getLong(String key, String defaultValue, long min) {
+            return getLong(key, defaultValue, min, Long.MAX_VALUE);
+        }
+
+        // in bytes, so a size that does not fit into a long is rejected as well
+        long getMegabytes(String key, String defaultValue, long min) {
+            return getLong(key, defaultValue, min, Long.MAX_VALUE / (1024 * 1024)) * 1024 * 1024;
+        }
+
+        private long getLong(String key, String defaultValue, long min, long max) {
+            String value = properties.getProperty(key, defaultValue).trim();
+            long number;
+            try {
+                number = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(key + " must be an integer, not \"" + value + "\"");
+            }
+            if (number < min) {
+                throw new IllegalArgumentException(key + " must be at least " + min + ", not " + value);
+            } else if (number > max) {
+                throw new IllegalArgumentException(key + " must be at most " + max + ", not " + value);
+            }
+            return number;
+        }
+
+        <T> T getChoice(String key, String defaultValue, Map<String, T> choices) {
+            String value = properties.getProperty(key, defaultValue).trim();
+            T choice = choices.get(value);
+            if (choice == null) {
+                throw new IllegalArgumentException(key + " must be one of " + String.join(", ", new TreeSet<>(choices.keySet()))
+                        + ", not \"" + value + "\"");
+            }
+            return choice;
+        }
+    }
+
+    private static class ShapeMap {
+        private static final Map<String, Shape> shapeMap = new HashMap<>();
+
+        static {
+            shapeMap.put("box", Shape.BOX);
+            shapeMap.put("ellipse", Shape.ELLIPSE);
+            shapeMap.put("oval", Shape.OVAL);
+            shapeMap.put("circle", Shape.CIRCLE);
+            shapeMap.put("point", Shape.POINT);
+            shapeMap.put("egg", Shape.EGG);
+            shapeMap.put("triangle", Shape.TRIANGLE);
+            shapeMap.put("plaintext", Shape.PLAIN_TEXT);
+            shapeMap.put("plain", Shape.PLAIN);
+            shapeMap.put("diamond", Shape.DIAMOND);
+            shapeMap.put("trapezium", Shape.TRAPEZIUM);
+            shapeMap.put("parallelogram", Shape.PARALLELOGRAM);
+            shapeMap.put("house", Shape.HOUSE);
+            shapeMap.put("pentagon", Shape.PENTAGON);
+            shapeMap.put("hexagon", Shape.HEXAGON);
+            shapeMap.put("septagon", Shape.SEPTAGON);
+            shapeMap.put("octagon", Shape.OCTAGON);
+            shapeMap.put("doublecircle", Shape.DOUBLE_CIRCLE);
+            shapeMap.put("doubleoctagon", Shape.DOUBLE_OCTAGON);
+            shapeMap.put("tripleoctagon", Shape.TRIPLE_OCTAGON);
+            shapeMap.put("invtriangle", Shape.INV_TRIANGLE);
+            shapeMap.put("invtrapezium", Shape.INV_TRAPEZIUM);
+            shapeMap.put("invhouse", Shape.INV_HOUSE);
+            shapeMap.put("Mdiamond", Shape.M_DIAMOND);
+            shapeMap.put("Msquare", Shape.M_SQUARE);
+            shapeMap.put("Mcircle", Shape.M_CIRCLE);
+            shapeMap.put("rect", Shape.RECT);
+            shapeMap.put("rectangle", Shape.RECTANGLE);
+            shapeMap.put("square", Shape.SQUARE);
+            shapeMap.put("star", Shape.STAR);
+            shapeMap.put("none", Shape.NONE);
+            shapeMap.put("underline", Shape.UNDERLINE);
+            shapeMap.put("cylinder", Shape.CYLINDER);
+            shapeMap.put("note", Shape.NOTE);
+            shapeMap.put("tab", Shape.TAB);
+            shapeMap.put("folder", Shape.FOLDER);
+            shapeMap.put("box3d", Shape.BOX_3D);
+            shapeMap.put("component", Shape.COMPONENT);
+            shapeMap.put("promoter", Shape.PROMOTER);
+            shapeMap.put("cds", Shape.CDS);
+            shapeMap.put("terminator", Shape.TERMINATOR);
+            shapeMap.put("utr", Shape.UTR);
+            shapeMap.put("primersite", Shape.PRIMER_SITE);
+            shapeMap.put("restrictionsite", Shape.RESTRICTION_SITE);
+            shapeMap.put("fivepoverhang", Shape.FIVE_P_OVERHANG);
+            shapeMap.put("threepoverhang", Shape.THREE_P_OVERHANG);
+            shapeMap.put("noverhang", Shape.N_OVERHANG);
+            shapeMap.put("assembly", Shape.ASSEMBLY);
+            shapeMap.put("signature", Shape.SIGNATURE);
+            shapeMap.put("insulator", Shape.INSULATOR);
+            shapeMap.put("ribosite", Shape.RIBO_SITE);
+            shapeMap.put("rnastab", Shape.RNA_STAB);
+            shapeMap.put("proteasesite", Shape.PROTEASE_SITE);
+            shapeMap.put("proteinstab", Shape.PROTEIN_STAB);
+            shapeMap.put("rpromoter", Shape.R_PROMOTER);
+            shapeMap.put("rarrow", Shape.R_ARROW);
+            shapeMap.put("larrow", Shape.L_ARROW);
+            shapeMap.put("lpromoter", Shape.L_PROMOTER);
+        }
+
+        public static Shape getShape(String key){
+            return shapeMap.getOrDefault(key, Shape.BOX);
+        }
+    }
+}
@@ -1,55 +1,622 @@
 package com.berkebakar.AstCreator;
 
 import guru.nidi.graphviz.engine.*;
-import guru.nidi.graphviz.model.MutableGraph;
-import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.dom.*;
 
-import java.io.File;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 public class AstCreator {
-    public static void createAst(Path inputPath, Path outputPath, Properties properties) {
-        try {
-            String sourceCode = Files.readString(inputPath);
-            ASTParser parser = ASTParser.newParser(AST.JLS19);
-            parser.setSource(sourceCode.toCharArray());
-
-            Map<String, String> options = JavaCore.getOptions();
-            options.put(JavaCore.COMPILER_SOURCE, JavaCore.VERSION_17);
-            options.put(JavaCore.COMPILER_COMPLIANCE, JavaCore.VERSION_17);
-            options.put(JavaCore.COMPILER_CODEGEN_TARGET_PLATFORM, JavaCore.VERSION_17);
-            parser.setCompilerOptions(options);
-            parser.setResolveBindings(true);
-            parser.setBindingsRecovery(true);
-            parser.setKind(ASTParser.K_CLASS_BODY_DECLARATIONS);
-
-            TypeDeclaration typeDeclaration = (TypeDeclaration) parser.createAST(null);
-            GraphicalAstVisitor visitor = new GraphicalAstVisitor(properties);
-            typeDeclaration.accept(visitor);
-
-            Path outputFilePath = outputPath.resolve(inputPath.getFileName().toString().replace(".java", ".png"));
-            File outputFile;
-            if (Files.notExists(outputFilePath)) {
-                outputFile = Files.createFile(outputFilePath).toFile();
-            } else {
-                outputFile = outputFilePath.toFile();
+    // one parser per thread, so workers of a parallel run do not share it
+    private static final ThreadLocal<ParserSession> parserSessions = new ThreadLocal<>();
+    private static final ThreadLocal<TreeRenderer> treeRenderers = new ThreadLocal<>();
+    // shared outputs of output.layout=shard and output.layout=tar, at most one of them is open
+    private static volatile NpyShardWriter npyShardWriter;
+    private static volatile TarShardWriter tarShardWriter;
+    private static volatile TokenShardWriter tokenShardWriter;
+    private static volatile IncrementalManifest incrementalManifest; // output.incremental
+    private static volatile RenderCache renderCache; // render.cacheSizeMB
+    private static volatile StageMetrics stageMetrics; // metrics.enabled
+    private static volatile FailureReport failureReport;
+    private static volatile FileIndex fileIndex; // output.layout=files with --input-manifest
+    private static volatile Vocabulary vocabulary; // output.format=sbt and paths
+    private static volatile Vocabulary.Builder vocabularyBuilder; // while the vocabulary is built, nothing is written
+
+    // onFinished gets whether every output of the file was written, once they are, which can be after createAst returns
+    // if another thread writes them. Files that are up to date or larger than budget.maxSourceBytes count as written,
+    // files that cannot be read as failed.
+    public static void createAst(Path inputPath, Path outputPath, AstConfig config, Consumer<Boolean> onFinished) {
+        long started = System.nanoTime();
+        Source source;
+        // read and parsed by this thread, so a snippet is decoded into the buffer of the thread, a compilation unit
+        // would be copied by ParserSession anyway
+        boolean sharedBuffer = config.getParseUnit() == AstConfig.ParseUnit.SNIPPET;
+        try {
+            source = createSource(inputPath, SourceDecoder.readFile(inputPath), List.of(), config, sharedBuffer, started);
+        } catch (IOException e) {
+            System.err.println("An error occurred while reading file: " + e.getMessage());
+            onFinished.accept(false);
+            return;
+        }
+        if (source == null) {
+            onFinished.accept(true);
+            return;
+        }
+        createAst(source, outputPath, config, onFinished);
+    }
+
+    // a source that is already read, e.g. an entry of a dataset
+    public static void createAst(Source source, Path outputPath, AstConfig config, Consumer<Boolean> onFinished) {
+        source.setOnFinished(() -> onFinished.accept(!source.isFailed()));
+        renderSource(source, config, renderedAst -> writeAst(renderedAst, outputPath, config));
+    }
+
+    // reads the file for another thread to parse, null if it cannot be read, is larger than budget.maxSourceBytes or
+    // output.incremental finds its outputs up to date
+    public static Source readSource(Path inputPath, AstConfig config) {
+        long started = System.nanoTime();
+        try {
+            return createSource(inputPath, SourceDecoder.readFile(inputPath), List.of(), config, false, started);
+        } catch (IOException e) {
+            System.err.println("An error occurred while reading file: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // a file the parser reads by path itself (BatchAstCreator), so it is only read for output.incremental and never
+    // decoded, null like readSource
+    public static Source readSourceForParser(Path inputPath, AstConfig config) {
+        long started = System.nanoTime();
+        try {
+            if (isTooLarge(inputPath, Files.size(inputPath), config)) {
+                return null;
+            }
+            String sourceHash = incrementalManifest == null ? null : IncrementalManifest.hash(SourceDecoder.readFile(inputPath));
+            if (sourceHash != null && incrementalManifest.isUpToDate(inputPath, sourceHash)) {
+                return null;
             }
+            recordStage(StageMetrics.Stage.READ, started, inputPath);
+            return new Source(inputPath, null, 0, sourceHash, List.of());
+        } catch (IOException e) {
+            System.err.println("An error occurred while reading file: " + e.getMessage());
+            return null;
+        }
+    }
 
-            MutableGraph astGraph = visitor.getGraph();
-            Graphviz.fromGraph(astGraph)
-                    .width(Integer.parseInt(properties.getProperty("output.width", "224")))
-                    .height(Integer.parseInt(properties.getProperty("output.height", "224")))
-                    .render(Format.PNG).toFile(outputFile);
+    // UTF-8 bytes of a source, inputPath names it and need not exist (entries of datasets), see readSource
+    public static Source readSource(Path inputPath, ByteBuffer bytes, AstConfig config) {
+        return readSource(inputPath, bytes, List.of(), config);
+    }
 
+    // labels of a record of InputManifest, written to the index files with the outputs of the source
+    public static Source readSource(Path inputPath, ByteBuffer bytes, List<String> labels, AstConfig config) {
+        long started = System.nanoTime();
+        try {
+            return createSource(inputPath, bytes, labels, config, false, started);
         } catch (IOException e) {
+            System.err.println("An error occurred while reading " + inputPath + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // sharedBuffer decodes into the buffer of this thread, only for a source that is parsed before the thread reads
+    // the next one
+    private static Source createSource(Path inputPath, ByteBuffer bytes, List<String> labels, AstConfig config,
+                                       boolean sharedBuffer, long started) throws IOException {
+        if (isTooLarge(inputPath, bytes.remaining(), config)) { // large files are mapped, not read
+            return null;
+        }
+        String sourceHash = incrementalManifest == null ? null : IncrementalManifest.hash(bytes);
+        if (sourceHash != null && incrementalManifest.isUpToDate(inputPath, sourceHash)) {
+            return null;
+        }
+        CharBuffer sourceCode = SourceDecoder.decode(bytes, sharedBuffer);
+        recordStage(StageMetrics.Stage.READ, started, inputPath);
+        return new Source(inputPath, sourceCode.array(), sourceCode.limit(), sourceHash, labels);
+    }
+
+    // more than budget.maxSourceBytes, reported as skipped
+    private static boolean isTooLarge(Path inputPath, long size, AstConfig config) {
+        if (config.getMaxSourceBytes() > 0 && size > config.getMaxSourceBytes()) {
+            reportFailure(inputPath, "", size + " bytes, more than budget.maxSourceBytes", FailureReport.Action.SKIPPED);
+            return true;
+        }
+        return false;
+    }
+
+    // parses and visits the source and hands each rendered AST to the sink as soon as it is rendered. With
+    // parse.unit=compilationUnit that is one AST per method of a whole Java file, otherwise the file is one method.
+    public static void renderSource(Source source, AstConfig config, Consumer<RenderedAst> sink) {
+        Path inputPath = source.getInputPath();
+        long started = System.nanoTime();
+        if (config.getParseUnit() == AstConfig.ParseUnit.COMPILATION_UNIT) {
+            CompilationUnit compilationUnit;
+            try {
+                compilationUnit = (CompilationUnit) getParserSession(config)
+                        .parse(source.sourceCode, source.length, ASTParser.K_COMPILATION_UNIT, inputPath.getFileName().toString());
+            } catch (RuntimeException e) {
+                discardSource(source);
+                throw e;
+            }
+            renderCompilationUnit(source, compilationUnit, System.nanoTime() - started, config, sink);
+            return;
+        }
+
+        try {
+            TypeDeclaration typeDeclaration = (TypeDeclaration) getParserSession(config)
+                    .parse(source.sourceCode, source.length, ASTParser.K_CLASS_BODY_DECLARATIONS, null);
+            started = recordStage(StageMetrics.Stage.PARSE, started, inputPath);
+            String fileName = inputPath.getFileName().toString();
+            String name = fileName.substring(0, fileName.length() - ".java".length());
+            AstGraph astGraph = visit(inputPath, name, typeDeclaration, config);
+            recordStage(StageMetrics.Stage.VISIT, started, inputPath);
+
+            if (astGraph != null) {
+                renderAst(source, name, astGraph, config, sink);
+            }
+        } catch (RuntimeException e) {
+            source.failed = true;
+            throw e;
+        } finally {
+            finishOutput(source);
+        }
+    }
+
+    // one AST per method of a whole Java file that is already parsed, by renderSource or by the batches of
+    // BatchAstCreator. parseNanos is the parse time of this file for the metrics.
+    public static void renderCompilationUnit(Source source, CompilationUnit compilationUnit, long parseNanos, AstConfig config,
+                                             Consumer<RenderedAst> sink) {
+        Path inputPath = source.getInputPath();
+        try {
+            if (stageMetrics != null) {
+                stageMetrics.record(StageMetrics.Stage.PARSE, parseNanos, inputPath);
+            }
+            long started = System.nanoTime();
+            AtomicLong emitNanos = new AtomicLong(); // taken out of the visit time of the whole file
+            compilationUnit.accept(new MethodExtractor(compilationUnit, config, (name, node) -> {
+                AstGraph astGraph = visit(inputPath, name, node, config);
+                if (astGraph != null) {
+                    long emitStarted = System.nanoTime();
+                    renderAst(source, name, astGraph, config, sink);
+                    emitNanos.addAndGet(System.nanoTime() - emitStarted);
+                }
+            }));
+            recordStage(StageMetrics.Stage.VISIT, started + emitNanos.get(), inputPath);
+        } catch (RuntimeException e) {
+            source.failed = true;
+            throw e;
+        } finally {
+            finishOutput(source);
+        }
+    }
+
+    // for a source that could not be parsed, the error is printed by the caller
+    public static void discardSource(Source source) {
+        source.failed = true;
+        finishOutput(source);
+    }
+
+    // outputs of a source in memory by output file name, for AstDaemon. output.layout and the run-wide outputs of
+    // openOutput are not used, the caller writes the files.
+    public static Map<String, byte[]> renderAsts(String sourceCode, String name, AstConfig config) throws IOException {
+        Path inputPath = Path.of(name + ".java");
+        Map<String, byte[]> outputs = new LinkedHashMap<>();
+        String extension = config.getOutputFormat().getExtension();
+        if (config.getParseUnit() == AstConfig.ParseUnit.COMPILATION_UNIT) {
+            CompilationUnit compilationUnit = (CompilationUnit) getParserSession(config)
+                    .parse(sourceCode.toCharArray(), ASTParser.K_COMPILATION_UNIT, inputPath.toString());
+            try {
+                compilationUnit.accept(new MethodExtractor(compilationUnit, config, (methodName, node) -> {
+                    AstGraph astGraph = visit(inputPath, methodName, node, config);
+                    if (astGraph == null) {
+                        return;
+                    }
+                    try {
+                        outputs.put(methodName + extension, render(inputPath, astGraph, config));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        } else {
+            TypeDeclaration typeDeclaration = (TypeDeclaration) getParserSession(config)
+                    .parse(sourceCode.toCharArray(), ASTParser.K_CLASS_BODY_DECLARATIONS, null);
+            AstGraph astGraph = visit(inputPath, name, typeDeclaration, config);
+            if (astGraph != null) {
+                outputs.put(name + extension, render(inputPath, astGraph, config));
+            }
+        }
+        return outputs;
+    }
+
+    // the graph of a method within budget.maxNodes. A larger one is visited again at statement level (like
+    // output.includeExpressions=false) with budget.onExceeded=degrade, null if it is skipped.
+    private static AstGraph visit(Path inputPath, String name, ASTNode node, AstConfig config) {
+        GraphicalAstVisitor visitor = new GraphicalAstVisitor(config);
+        node.accept(visitor);
+        if (!visitor.isOverBudget()) {
+            return visitor.getGraph();
+        }
+        String reason = "more than " + config.getMaxNodes() + " nodes";
+        if (config.getBudgetAction() == AstConfig.BudgetAction.DEGRADE && config.isExpressionsIncluded()) {
+            GraphicalAstVisitor statementVisitor = new GraphicalAstVisitor(config, false);
+            node.accept(statementVisitor);
+            if (!statementVisitor.isOverBudget()) {
+                reportFailure(inputPath, name, reason, FailureReport.Action.DEGRADED);
+                return statementVisitor.getGraph();
+            }
+            reason += " without expressions";
+        }
+        reportFailure(inputPath, name, reason, FailureReport.Action.SKIPPED);
+        return null;
+    }
+
+    // prints the failure and adds it to asts.failures.csv, which the daemon does not have
+    private static void reportFailure(Path inputPath, String name, String reason, FailureReport.Action action) {
+        if (vocabularyBuilder != null) { // reported when the ASTs are created
+            return;
+        }
+        String subject = name.isEmpty() ? inputPath.getFileName().toString() : name;
+        if (action != FailureReport.Action.FAILED) { // errors are printed where they are caught
+            System.err.println((action == FailureReport.Action.DEGRADED ? "Degraded to statement level: " : "Skipped: ") + subject + ", " + reason);
+        }
+        FailureReport report = failureReport;
+        if (report != null) {
+            try {
+                report.record(inputPath, name, reason, action);
+            } catch (IOException e) {
+                System.err.println("An error occurred while writing to file: " + e.getMessage());
+            }
+        }
+    }
+
+    // renders one AST or takes it from the render cache, name is the output file name without extension
+    private static void renderAst(Source source, String name, AstGraph astGraph, AstConfig config, Consumer<RenderedAst> sink) {
+        Vocabulary.Builder builder = vocabularyBuilder;
+        if (builder != null) {
+            builder.add(astGraph, config);
+            return;
+        }
+        long started = System.nanoTime();
+        String cacheKey = renderCache == null ? null : astGraph.getStructuralHash();
+        RenderCache.Entry cached = cacheKey == null ? null : renderCache.get(cacheKey);
+        byte[] rendered;
+        try {
+            rendered = cached == null ? render(source.getInputPath(), astGraph, config) : cached.data();
+        } catch (IOException | GraphvizException e) { // also a render.timeoutMillis of render.engine=cmdline
+            source.failed = true;
+            System.err.println("An error occurred while creating AST for " + name + " Message: " + e.getMessage());
+            reportFailure(source.getInputPath(), name, String.valueOf(e.getMessage()), FailureReport.Action.FAILED);
+            return;
+        }
+        recordStage(StageMetrics.Stage.RENDER, started, source.getInputPath());
+        source.pendingOutputs.incrementAndGet();
+        sink.accept(new RenderedAst(source, name, rendered, astGraph.size(), cacheKey, cached));
+    }
+
+    // writes one rendered AST to the configured output
+    public static void writeAst(RenderedAst renderedAst, Path outputPath, AstConfig config) {
+        Source source = renderedAst.source();
+        String outputFileName = renderedAst.name() + config.getOutputFormat().getExtension();
+        byte[] rendered = renderedAst.data();
+        RenderCache.Entry cached = renderedAst.cached();
+        long started = System.nanoTime();
+        boolean queued = false; // finished by the tar appender thread once it is written
+        try {
+            Path outputFilePath = null;
+            long bytesWritten = rendered.length;
+            if (npyShardWriter != null) {
+                npyShardWriter.append(source.getInputPath(), renderedAst.name(), rendered, source.labels);
+            } else if (tokenShardWriter != null) {
+                tokenShardWriter.append(source.getInputPath(), renderedAst.name(), rendered, source.labels);
+            } else if (tarShardWriter != null) {
+                tarShardWriter.append(source.getInputPath(), renderedAst.name(), config.getOutputFormat().getExtension(),
+                        rendered, source.labels, written -> {
+                            if (!written) {
+                                source.failed = true;
+                            }
+                            finishOutput(source);
+                        });
+                queued = true;
+            } else {
+                outputFilePath = outputPath.resolve(outputFileName);
+                if (config.isRenderCacheHardLinks()) { // replace instead of overwriting, other outputs may be links to this file
+                    Files.deleteIfExists(outputFilePath);
+                }
+                if (cached == null || cached.file() == null || !config.isRenderCacheHardLinks() || !link(outputFilePath, cached.file())) {
+                    Files.write(outputFilePath, rendered);
+                } else {
+                    bytesWritten = 0;
+                }
+                if (fileIndex != null) {
+                    fileIndex.record(source.getInputPath(), outputFileName, source.labels);
+                }
+                if (source.sourceHash != null) {
+                    source.outputFileNames.add(outputFileName);
+                }
+            }
+            if (renderedAst.cacheKey() != null && cached == null) {
+                renderCache.put(renderedAst.cacheKey(), rendered, outputFilePath);
+            }
+            recordStage(StageMetrics.Stage.WRITE, started, source.getInputPath());
+            if (stageMetrics != null) {
+                stageMetrics.recordAst(renderedAst.nodeCount(), bytesWritten);
+            }
+        } catch (IOException e) {
+            source.failed = true;
             System.err.println("An error occurred while writing to file: " + e.getMessage());
-        } catch (GraphvizException e) {
-            System.err.println("An error occurred while creating AST for " + inputPath.getFileName().toString() + " Message: " + e.getMessage());
+        } finally {
+            if (!queued) {
+                finishOutput(source);
+            }
         }
     }
+
+    // called after parsing and after every write of the source, the last call finishes it. A source with a failed
+    // AST is not recorded by output.incremental, so the next run tries it again.
+    private static void finishOutput(Source source) {
+        if (source.pendingOutputs.decrementAndGet() > 0) {
+            return;
+        }
+        if (source.sourceHash != null && !source.failed) {
+            try {
+                incrementalManifest.record(source.getInputPath(), source.sourceHash, List.copyOf(source.outputFileNames));
+            } catch (IOException e) {
+                System.err.println("An error occurred while writing to file: " + e.getMessage());
+            }
+        }
+        if (stageMetrics != null) {
+            stageMetrics.recordFile();
+        }
+        if (source.onFinished != null) {
+            source.onFinished.run();
+        }
+    }
+
+    // output.format=sbt and paths: the ASTs created until finishVocabulary are only counted into the vocabulary. Called
+    // before openOutput, so the first pass over the corpus writes nothing.
+    public static void startVocabulary() {
+        vocabularyBuilder = new Vocabulary.Builder();
+    }
+
+    // the vocabulary of the ASTs since startVocabulary, which the ASTs created from now on are written with
+    public static Vocabulary finishVocabulary(AstConfig config) {
+        vocabulary = vocabularyBuilder.build(config.getTokenVocabularySize(), config.getPathVocabularySize());
+        vocabularyBuilder = null;
+        return vocabulary;
+    }
+
+    // a vocabulary of an earlier run, see tokens.vocabulary
+    public static void useVocabulary(Vocabulary vocabulary) {
+        AstCreator.vocabulary = vocabulary;
+    }
+
+    // null without metrics.enabled
+    public static StageMetrics getStageMetrics() {
+        return stageMetrics;
+    }
+
+    // times the stage from started until now with metrics.enabled, returns now as the start of the next stage
+    private static long recordStage(StageMetrics.Stage stage, long started, Path inputPath) {
+        long now = System.nanoTime();
+        if (stageMetrics != null) {
+            stageMetrics.record(stage, now - started, inputPath);
+        }
+        return now;
+    }
+
+    private static boolean link(Path link, Path existing) {
+        try {
+            Files.createLink(link, existing);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) { // other file system or the first output was deleted
+            return false;
+        }
+    }
+
+    // opens what is shared by all ASTs of a run: the output of output.layout=shard or tar (ASTs are written to one
+    // file each otherwise), the manifest of output.incremental, the render cache, the metrics and the failure report.
+    // labelColumns are the ones of --input-manifest, null without one, they are added to the index files.
+    public static void openOutput(Path outputPath, AstConfig config, List<String> labelColumns) throws IOException {
+        failureReport = new FailureReport(outputPath);
+        if (config.isMetricsEnabled()) {
+            stageMetrics = new StageMetrics(outputPath, config.getMetricsIntervalSeconds(), config.isMetricsJfr());
+        }
+        if (config.getRenderCacheBytes() > 0 && config.getOutputFormat().isImage()) { // graph formats are not rendered
+            renderCache = new RenderCache(config.getRenderCacheBytes());
+        }
+        if (config.isIncremental()) {
+            if (config.getOutputLayout() == AstConfig.OutputLayout.FILES) {
+                incrementalManifest = new IncrementalManifest(outputPath, config.getConfigHash());
+            } else { // shards are written again from scratch, so every source is needed
+                System.err.println("output.incremental is only supported with output.layout=files, creating all ASTs.");
+            }
+        }
+        List<String> indexLabelColumns = labelColumns == null ? List.of() : labelColumns;
+        if (config.getOutputLayout() == AstConfig.OutputLayout.TAR) {
+            tarShardWriter = new TarShardWriter(outputPath, config.getMaxShardBytes(), indexLabelColumns);
+            return;
+        }
+        if (config.getOutputLayout() == AstConfig.OutputLayout.SHARD) {
+            if (config.getOutputFormat() == AstConfig.OutputFormat.NPY) {
+                npyShardWriter = new NpyShardWriter(outputPath, config.getOutputHeight(), config.getOutputWidth(), indexLabelColumns);
+                return;
+            }
+            if (config.getOutputFormat().isTokens()) {
+                tokenShardWriter = new TokenShardWriter(outputPath, config.getOutputFormat(), indexLabelColumns);
+                return;
+            }
+            System.err.println("output.layout=shard is only supported with output.format=npy, sbt and paths, writing one file per AST.");
+        }
+        if (labelColumns != null) { // the shard and tar layouts have their own index
+            fileIndex = new FileIndex(outputPath, labelColumns, incrementalManifest != null);
+        }
+    }
+
+    public static void closeOutput() throws IOException {
+        if (tarShardWriter != null) { // first, it finishes the sources of the entries it still writes
+            tarShardWriter.close();
+            tarShardWriter = null;
+        }
+        if (failureReport != null) {
+            String summary = failureReport.getSummary();
+            if (summary != null) {
+                System.out.println(summary);
+            }
+            failureReport.close();
+            failureReport = null;
+        }
+        if (stageMetrics != null) {
+            stageMetrics.close();
+            stageMetrics = null;
+        }
+        if (renderCache != null) {
+            System.out.println(renderCache.getReport());
+            renderCache = null;
+        }
+        if (incrementalManifest != null) {
+            System.out.println("Skipped " + incrementalManifest.getSkippedCount() + " unchanged files, their ASTs are up to date.");
+            incrementalManifest.close();
+            incrementalManifest = null;
+        }
+        if (npyShardWriter != null) {
+            npyShardWriter.close();
+            npyShardWriter = null;
+        }
+        if (tokenShardWriter != null) {
+            tokenShardWriter.close();
+            tokenShardWriter = null;
+        }
+        if (fileIndex != null) {
+            fileIndex.close();
+            fileIndex = null;
+        }
+    }
+
+    public static void useRenderEngine(AstConfig config) {
+        if (!config.getOutputFormat().isImage()) { // graph formats do not render, so no engine is started
+            return;
+        }
+        if (config.getRenderEngine() == AstConfig.RenderEngine.CMDLINE) {
+            Graphviz.useEngine(new DotProcessEngine(config.getDotCommand(), config.getRenderTimeoutMillis()));
+        } else if (config.getRenderEngine() == AstConfig.RenderEngine.J2V8) {
+            Graphviz.useEngine(new GraphvizV8Engine());
+        }
+    }
+
+    // pixels of the AST without encoding them as PNG
+    private static BufferedImage renderImage(AstGraph astGraph, AstConfig config) {
+        if (config.getRenderEngine() == AstConfig.RenderEngine.JAVA) {
+            return getTreeRenderer(config).render(astGraph, config);
+        }
+        return Graphviz.fromGraph(astGraph.toMutableGraph(config))
+                .width(config.getOutputWidth())
+                .height(config.getOutputHeight())
+                .render(Format.PNG).toImage();
+    }
+
+    // contents of the output file, or only the pixels of the row with output.layout=shard
+    private static byte[] render(Path inputPath, AstGraph astGraph, AstConfig config) throws IOException {
+        if (npyShardWriter != null) {
+            return npyShardWriter.toRow(inputPath, renderImage(astGraph, config));
+        }
+        if (config.getOutputFormat().isTokens()) {
+            if (vocabulary == null) {
+                throw new IOException("output.format=" + config.getOutputFormat().name().toLowerCase() + " needs a vocabulary, see tokens.vocabulary");
+            }
+            return TokenExporter.export(astGraph, config, vocabulary);
+        }
+        if (!config.getOutputFormat().isImage()) {
+            return GraphExporter.export(astGraph, config);
+        }
+        if (config.getOutputFormat() == AstConfig.OutputFormat.NPY) {
+            return NpyFormat.toBytes(renderImage(astGraph, config));
+        }
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        if (config.getRenderEngine() == AstConfig.RenderEngine.JAVA) {
+            ImageIO.write(renderImage(astGraph, config), "png", png);
+        } else {
+            Graphviz.fromGraph(astGraph.toMutableGraph(config))
+                    .width(config.getOutputWidth())
+                    .height(config.getOutputHeight())
+                    .render(Format.PNG).toOutputStream(png);
+        }
+        return png.toByteArray();
+    }
+
+    // the parser of the current thread
+    public static ParserSession getParserSession(AstConfig config) {
+        ParserSession parserSession = parserSessions.get();
+        if (parserSession == null || parserSession.getParseMode() != config.getParseMode()) {
+            parserSession = new ParserSession(config.getParseMode());
+            parserSessions.set(parserSession);
+        }
+        return parserSession;
+    }
+
+    private static TreeRenderer getTreeRenderer(AstConfig config) {
+        TreeRenderer treeRenderer = treeRenderers.get();
+        if (treeRenderer == null || !treeRenderer.hasSize(config.getOutputWidth(), config.getOutputHeight())) {
+            treeRenderer = new TreeRenderer(config.getOutputWidth(), config.getOutputHeight());
+            treeRenderers.set(treeRenderer);
+        }
+        return treeRenderer;
+    }
+
+    // A source file on its way through the stages. Its ASTs may be written by other threads than the one that parsed
+    // it (PipelineAstCreator), the file is finished when the last of them is written.
+    public static final class Source {
+        private final Path inputPath;
+        private final char[] sourceCode; // may be longer than the source, null if the parser reads the file itself
+        private final int length;
+        private final String sourceHash; // null without output.incremental
+        private final List<String> labels; // of the InputManifest record, empty otherwise
+        private final Queue<String> outputFileNames = new ConcurrentLinkedQueue<>(); // written so far, with output.incremental
+        private final AtomicInteger pendingOutputs = new AtomicInteger(1); // 1 until all ASTs of the source are rendered
+        private volatile boolean failed = false;
+        private volatile Runnable onFinished;
+
+        Source(Path inputPath, char[] sourceCode, int length, String sourceHash, List<String> labels) {
+            this.inputPath = inputPath;
+            this.sourceCode = sourceCode;
+            this.length = length;
+            this.sourceHash = sourceHash;
+            this.labels = labels;
+        }
+
+        public Path getInputPath() {
+            return inputPath;
+        }
+
+        // true if any AST of the source could not be created or written, the error is already printed
+        public boolean isFailed() {
+            return failed;
+        }
+
+        // runs in the thread that finishes the source, after its last AST is written
+        public void setOnFinished(Runnable onFinished) {
+            this.onFinished = onFinished;
+        }
+    }
+
+    // name is the output file name without extension, cached the render cache entry the data was taken from
+    public record RenderedAst(Source source, String name, byte[] data, int nodeCount, String cacheKey, RenderCache.Entry cached) {
+    }
 }
@@ -0,0 +1,128 @@
+package com.berkebakar.AstCreator;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.*;
+
+// Long running process for callers that create ASTs of single files, like IDE plugins and CI jobs, so the JVM, JDT
+// and the render engine are only started once. Requests of DaemonProtocol come from stdin or from the connections
+// of a Unix socket and are parsed and rendered by a pool of worker threads, see DaemonClient for the other side.
+public class AstDaemon {
+    private static final Future<Map<String, byte[]>> END_OF_REQUESTS = CompletableFuture.completedFuture(null);
+
+    private final AstConfig config;
+    private final ExecutorService workers;
+    private final int maxPendingRequests; // of one connection, reading stops when the responses are this far behind
+
+    public AstDaemon(AstConfig config, int threadCount) {
+        this.config = config;
+        this.workers = Executors.newFixedThreadPool(threadCount);
+        this.maxPendingRequests = threadCount * 3;
+    }
+
+    // answers requests on stdin until it is closed, nothing else may be printed to stdout
+    public void serveStandardStreams() throws IOException {
+        try {
+            serve(new BufferedInputStream(new FileInputStream(FileDescriptor.in)),
+                    new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    // answers every connection on its own thread until the process is stopped
+    public void serveSocket(Path socketPath) throws IOException {
+        if (DaemonClient.isRunning(socketPath)) {
+            throw new IOException("A daemon is already running on " + socketPath);
+        }
+        Files.deleteIfExists(socketPath); // left behind by a daemon that was killed
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socketPath);
+                } catch (IOException e) {
+                    System.err.println("Socket " + socketPath + " cannot be deleted: " + e.getMessage());
+                }
+            }));
+            System.out.println("Daemon is running on " + socketPath);
+            while (true) {
+                SocketChannel connection = server.accept();
+                Thread connectionThread = new Thread(() -> serveConnection(connection), "daemon-connection");
+                connectionThread.setDaemon(true);
+                connectionThread.start();
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private void serveConnection(SocketChannel connection) {
+        try (connection) {
+            serve(DaemonProtocol.newInputStream(connection), DaemonProtocol.newOutputStream(connection));
+        } catch (IOException e) {
+            System.err.println("Daemon connection failed: " + e.getMessage());
+        }
+    }
+
+    // requests go to the workers as soon as they are read, a writer thread sends the responses in request order
+    private void serve(InputStream input, OutputStream output) throws IOException {
+        BlockingQueue<Future<Map<String, byte[]>>> responses = new ArrayBlockingQueue<>(maxPendingRequests);
+        Thread writer = new Thread(() -> writeResponses(responses, output), "daemon-writer");
+        writer.setDaemon(true);
+        writer.start();
+        boolean finished = false;
+        try {
+            DaemonProtocol.Request request;
+            while ((request = DaemonProtocol.readRequest(input)) != null) {
+                DaemonProtocol.Request nextRequest = request;
+                responses.put(workers.submit(() ->
+                        AstCreator.renderAsts(new String(nextRequest.source(), StandardCharsets.UTF_8), nextRequest.name(), config)));
+            }
+            responses.put(END_OF_REQUESTS);
+            writer.join();
+            finished = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading requests");
+        } finally {
+            if (!finished) { // a broken request or connection, the requests that are still open are dropped
+                writer.interrupt();
+                responses.forEach(response -> response.cancel(true));
+            }
+        }
+    }
+
+    // after the connection failed the remaining requests are cancelled, so the reader never waits for a full queue
+    private void writeResponses(BlockingQueue<Future<Map<String, byte[]>>> responses, OutputStream output) {
+        boolean connected = true;
+        try {
+            Future<Map<String, byte[]>> response;
+            while ((response = responses.take()) != END_OF_REQUESTS) {
+                if (!connected) {
+                    response.cancel(true);
+                    continue;
+                }
+                try {
+                    DaemonProtocol.writeResponse(output, response.get());
+                } catch (ExecutionException e) { // the request failed, not the connection
+                    DaemonProtocol.writeError(output, e.getCause().toString());
+                } catch (IOException e) {
+                    System.err.println("Daemon response cannot be sent: " + e.getMessage());
+                    connected = false;
+                }
+            }
+        } catch (InterruptedException | CancellationException e) { // the requests were dropped while reading them
+            Thread.currentThread().interrupt();
+        } catch (IOException e) { // the error of a failed request cannot be sent either
+            System.err.println("Daemon response cannot be sent: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.berkebakar.AstCreator;
+
+import guru.nidi.graphviz.attribute.Attributes;
+import guru.nidi.graphviz.attribute.ForNode;
+import guru.nidi.graphviz.attribute.Label;
+import guru.nidi.graphviz.model.MutableGraph;
+import guru.nidi.graphviz.model.MutableNode;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+import static guru.nidi.graphviz.model.Factory.mutGraph;
+import static guru.nidi.graphviz.model.Factory.mutNode;
+
+// Compact graph of the AST nodes emitted by GraphicalAstVisitor, kept in int arrays that only grow when full.
+// Nodes are numbered from 0 in visit order, so parents always have smaller ids than their children and the children
+// of a node are in visit order too. Ids are unique and the same in every run, every output format uses them.
+// Styles are not stored, they are looked up from AstConfig by node type.
+// A Graphviz MutableGraph is only built by toMutableGraph when the graph is rendered with Graphviz.
+public final class AstGraph {
+    public static final int NO_PARENT = -1;
+
+    private int size = 0;
+    private int[] types = new int[64]; // ASTNode.getNodeType()
+    private int[] parents = new int[64];
+    private int[] labelEnds = new int[64]; // end of each label in labels, nodes without details have empty labels
+    private final StringBuilder labels = new StringBuilder();
+
+    // details is the whole label of output.detailed, or null to label the node with its type name
+    public int addNode(int type, String details) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            labelEnds = Arrays.copyOf(labelEnds, capacity);
+        }
+        if (details != null) {
+            labels.append(details);
+        }
+        types[size] = type;
+        parents[size] = NO_PARENT;
+        labelEnds[size] = labels.length();
+        return size++;
+    }
+
+    public void setParent(int node, int parent) {
+        parents[node] = parent;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getType(int node) {
+        return types[node];
+    }
+
+    public int getParent(int node) {
+        return parents[node];
+    }
+
+    public String getLabel(int node, AstConfig config) {
+        int labelStart = node == 0 ? 0 : labelEnds[node - 1];
+        if (labelStart == labelEnds[node]) {
+            return config.getNodeStyle(types[node]).name();
+        }
+        return labels.substring(labelStart, labelEnds[node]);
+    }
+
+    // children of all nodes grouped by parent: the children of node are ids[offsets[node]] to ids[offsets[node + 1] - 1]
+    public Children getChildren() {
+        int[] offsets = new int[size + 1];
+        for (int node = 0; node < size; node++) {
+            if (parents[node] != NO_PARENT) {
+                offsets[parents[node] + 1]++;
+            }
+        }
+        for (int node = 0; node < size; node++) {
+            offsets[node + 1] += offsets[node];
+        }
+        int[] ids = new int[offsets[size]];
+        int[] next = Arrays.copyOf(offsets, size);
+        for (int node = 0; node < size; node++) { // nodes are visited in id order, so children stay in visit order
+            if (parents[node] != NO_PARENT) {
+                ids[next[parents[node]]++] = node;
+            }
+        }
+        return new Children(offsets, ids);
+    }
+
+    // SHA-256 of the node types, parents and labels. Ids are given in visit order, so ASTs with the same filtered
+    // structure have the same arrays and the same hash, and render to the same image with the same config.
+    public String getStructuralHash() {
+        ByteBuffer structure = ByteBuffer.allocate(4 + 12 * size);
+        structure.putInt(size);
+        for (int node = 0; node < size; node++) {
+            structure.putInt(types[node]).putInt(parents[node]).putInt(labelEnds[node]);
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(structure.array());
+            digest.update(labels.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) { // every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Graphviz nodes are named by their ids
+    public MutableGraph toMutableGraph(AstConfig config) {
+        MutableGraph graph = mutGraph("AST").setDirected(true);
+        MutableNode[] graphNodes = new MutableNode[size];
+        for (int node = 0; node < size; node++) {
+            AstConfig.NodeStyle nodeStyle = config.getNodeStyle(types[node]);
+            Attributes<ForNode> attributes = Attributes.attrs(List.of(
+                    Label.of(getLabel(node, config)), nodeStyle.color(), nodeStyle.shape(), nodeStyle.style(), nodeStyle.size()));
+            graphNodes[node] = mutNode(Integer.toString(node)).add(attributes);
+            graph.add(graphNodes[node]);
+            if (parents[node] != NO_PARENT) {
+                graphNodes[parents[node]].addLink(graphNodes[node]);
+            }
+        }
+        return graph;
+    }
+
+    public record Children(int[] offsets, int[] ids) {
+        public int count(int node) {
+            return offsets[node + 1] - offsets[node];
+        }
+
+        public int get(int node, int index) {
+            return ids[offsets[node] + index];
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.berkebakar.AstCreator;
+
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.FileASTRequestor;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+// Creates the ASTs of whole Java files (parse.unit=compilationUnit) with parse.batchSize > 0: each batch of that many
+// files is parsed by a single ASTParser.createASTs call instead of one createAST call per file, which sets up the
+// compiler and the name environment only once, and with parse.mode=bindings resolves types declared in other files
+// of the same batch. Each compilation unit is visited and its ASTs are written as soon as JDT hands it over.
+// Batches are spread over the worker threads, files finish in any order.
+public class BatchAstCreator {
+    private final int threadCount;
+    private final int batchSize;
+    private final int maxPendingBatches;
+
+    public BatchAstCreator(int threadCount, int batchSize) {
+        this.threadCount = threadCount;
+        this.batchSize = batchSize;
+        // at most this many batches are queued or being processed at the same time
+        this.maxPendingBatches = threadCount * 2;
+    }
+
+    public void createAsts(Stream<Path> inputPaths, Path outputPath, AstConfig config) {
+        ExecutorService executor = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxPendingBatches));
+        Deque<Future<?>> pendingBatches = new ArrayDeque<>();
+
+        try {
+            Iterator<Path> iterator = inputPaths.iterator();
+            while (iterator.hasNext()) {
+                List<Path> batch = new ArrayList<>(batchSize);
+                while (iterator.hasNext() && batch.size() < batchSize) {
+                    batch.add(iterator.next());
+                }
+                if (pendingBatches.size() >= maxPendingBatches) { // wait for the oldest batch before queueing more work
+                    await(pendingBatches.poll());
+                }
+                pendingBatches.add(executor.submit(() -> createBatch(batch, outputPath, config)));
+            }
+
+            while (!pendingBatches.isEmpty()) {
+                await(pendingBatches.poll());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void createBatch(List<Path> batch, Path outputPath, AstConfig config) {
+        // only hashed for output.incremental, JDT reads and decodes the files by path
+        Map<String, AstCreator.Source> sources = new HashMap<>();
+        for (Path path : batch) {
+            AstCreator.Source source = AstCreator.readSourceForParser(path, config);
+            if (source == null) {
+                continue;
+            }
+            if (config.isPerFileLogging()) {
+                source.setOnFinished(() -> {
+                    if (!source.isFailed()) {
+                        System.out.println("Generated AST for " + source.getInputPath().getFileName());
+                    }
+                });
+            }
+            sources.put(path.toString(), source);
+        }
+        if (sources.isEmpty()) {
+            return;
+        }
+
+        long[] parseStarted = {System.nanoTime()}; // files are parsed one after the other between the callbacks
+        try {
+            AstCreator.getParserSession(config).parseFiles(sources.keySet().toArray(new String[0]), new FileASTRequestor() {
+                @Override
+                public void acceptAST(String sourceFilePath, CompilationUnit compilationUnit) {
+                    AstCreator.Source source = sources.remove(sourceFilePath);
+                    if (source == null) {
+                        return;
+                    }
+                    if (config.isPerFileLogging()) {
+                        System.out.println("Creating AST for " + source.getInputPath().getFileName());
+                    }
+                    try {
+                        AstCreator.renderCompilationUnit(source, compilationUnit, System.nanoTime() - parseStarted[0], config,
+                                renderedAst -> AstCreator.writeAst(renderedAst, outputPath, config));
+                    } catch (RuntimeException e) { // one broken file does not stop the batch
+                        System.err.println("An error occurred while creating AST for " + source.getInputPath().getFileName() + " Message: " + e);
+                    }
+                    parseStarted[0] = System.nanoTime();
+                }
+            });
+        } finally {
+            // files JDT did not hand over, because the batch failed or the file could not be parsed
+            for (AstCreator.Source source : sources.values()) {
+                System.err.println("An error occurred while creating AST for " + source.getInputPath().getFileName() + " Message: not parsed");
+                AstCreator.discardSource(source);
+            }
+        }
+    }
+
+    private static void await(Future<?> batch) {
+        try {
+            batch.get();
+        } catch (ExecutionException e) {
+            System.err.println("An error occurred while creating ASTs of a batch Message: " + e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for a batch of ASTs");
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.berkebakar.AstCreator;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+// Helpers for the CSV index and manifest files written next to the outputs
+public final class Csv {
+    private Csv() {
+    }
+
+    // quotes a value only when it contains a separator, a quote or a line break
+    public static String field(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    // the values as fields at the end of a line, e.g. ",bug,3", empty without values
+    public static String trailingFields(List<String> values) {
+        StringBuilder fields = new StringBuilder();
+        for (String value : values) {
+            fields.append(',').append(field(value));
+        }
+        return fields.toString();
+    }
+
+    // the next record of RFC 4180 CSV, quoted fields may contain separators, quotes and line breaks. Null at the end of
+    // the input. The reader should be buffered, it is read one character at a time.
+    public static List<String> readRecord(Reader reader) throws IOException {
+        int c = reader.read();
+        if (c < 0) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c < 0) {
+                    throw new IOException("Quoted CSV field is not closed before the end of the file");
+                } else if (c != '"') {
+                    field.append((char) c);
+                } else {
+                    c = reader.read();
+                    if (c != '"') { // a doubled quote is a quote, a single one ends the field
+                        quoted = false;
+                        continue;
+                    }
+                    field.append('"');
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c < 0) {
+                break;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+            c = reader.read();
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,62 @@
+package com.berkebakar.AstCreator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+// Connection to an AstDaemon on a Unix socket. It only sends sources and writes the returned outputs, so it does not
+// load JDT or a render engine. The outputs are created with the config.properties of the daemon.
+public class DaemonClient implements Closeable {
+    private final SocketChannel channel;
+    private final InputStream input;
+    private final OutputStream output;
+
+    private DaemonClient(SocketChannel channel) {
+        this.channel = channel;
+        this.input = DaemonProtocol.newInputStream(channel);
+        this.output = DaemonProtocol.newOutputStream(channel);
+    }
+
+    // null if no daemon is running on the socket, the caller then creates the ASTs itself
+    public static DaemonClient connect(Path socketPath) {
+        try {
+            return new DaemonClient(SocketChannel.open(UnixDomainSocketAddress.of(socketPath)));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public static boolean isRunning(Path socketPath) throws IOException {
+        DaemonClient client = connect(socketPath);
+        if (client == null) {
+            return false;
+        }
+        client.close();
+        return true;
+    }
+
+    // outputs of the source by file name, name is the file name of the source without .java
+    public Map<String, byte[]> createAsts(String name, byte[] source) throws IOException {
+        DaemonProtocol.writeRequest(output, name, source);
+        return DaemonProtocol.readResponse(input);
+    }
+
+    public void createAst(Path inputPath, Path outputPath) throws IOException {
+        String fileName = inputPath.getFileName().toString();
+        Map<String, byte[]> outputs = createAsts(fileName.substring(0, fileName.length() - ".java".length()), Files.readAllBytes(inputPath));
+        for (Map.Entry<String, byte[]> entry : outputs.entrySet()) {
+            Files.write(outputPath.resolve(entry.getKey()), entry.getValue());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,147 @@
+package com.berkebakar.AstCreator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Line protocol between DaemonClient and AstDaemon, the same over a Unix socket and over stdin/stdout.
+// Request:  "AST <length> <name>\n" followed by <length> bytes of UTF-8 Java source, name is the file name without .java
+// Response: "OK <count>\n" followed by <count> times "<length> <output file name>\n" and <length> bytes of the output,
+//           or "ERROR <message>\n"
+// A connection can send any number of requests, responses come in request order.
+public final class DaemonProtocol {
+    private DaemonProtocol() {
+    }
+
+    public static void writeRequest(OutputStream output, String name, byte[] source) throws IOException {
+        output.write(("AST " + source.length + " " + name + "\n").getBytes(StandardCharsets.UTF_8));
+        output.write(source);
+        output.flush();
+    }
+
+    // null at the end of the stream
+    public static Request readRequest(InputStream input) throws IOException {
+        String header = readLine(input);
+        if (header == null) {
+            return null;
+        }
+        String[] fields = header.split(" ", 3);
+        if (fields.length != 3 || !fields[0].equals("AST")) {
+            throw new IOException("Invalid request: " + header);
+        }
+        return new Request(fields[2], readBytes(input, parseLength(fields[1])));
+    }
+
+    public static void writeResponse(OutputStream output, Map<String, byte[]> outputs) throws IOException {
+        output.write(("OK " + outputs.size() + "\n").getBytes(StandardCharsets.UTF_8));
+        for (Map.Entry<String, byte[]> entry : outputs.entrySet()) {
+            output.write((entry.getValue().length + " " + entry.getKey() + "\n").getBytes(StandardCharsets.UTF_8));
+            output.write(entry.getValue());
+        }
+        output.flush();
+    }
+
+    public static void writeError(OutputStream output, String message) throws IOException {
+        output.write(("ERROR " + String.valueOf(message).replace('\n', ' ') + "\n").getBytes(StandardCharsets.UTF_8));
+        output.flush();
+    }
+
+    // outputs by file name, an ERROR response is thrown as IOException
+    public static Map<String, byte[]> readResponse(InputStream input) throws IOException {
+        String header = readLine(input);
+        if (header == null) {
+            throw new EOFException("Daemon closed the connection");
+        }
+        if (header.startsWith("ERROR ")) {
+            throw new IOException(header.substring("ERROR ".length()));
+        }
+        if (!header.startsWith("OK ")) {
+            throw new IOException("Invalid response: " + header);
+        }
+        Map<String, byte[]> outputs = new LinkedHashMap<>();
+        int count = parseLength(header.substring("OK ".length()));
+        for (int i = 0; i < count; i++) {
+            String[] fields = readLine(input).split(" ", 2);
+            outputs.put(fields[1], readBytes(input, parseLength(fields[0])));
+        }
+        return outputs;
+    }
+
+    private static byte[] readBytes(InputStream input, int length) throws IOException {
+        byte[] data = input.readNBytes(length);
+        if (data.length != length) {
+            throw new EOFException("Stream ended after " + data.length + " of " + length + " bytes");
+        }
+        return data;
+    }
+
+    private static int parseLength(String value) throws IOException {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid length: " + value);
+        }
+    }
+
+    // a line without the line break, null at the end of the stream
+    private static String readLine(InputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int next;
+        while ((next = input.read()) != '\n') {
+            if (next == -1) {
+                if (line.size() == 0) {
+                    return null;
+                }
+                throw new EOFException("Stream ended within a line");
+            }
+            line.write(next);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    // Streams of Channels synchronize reads and writes of socket channels on one lock, these do not, so the daemon can
+    // read the next request while it writes a response
+    public static InputStream newInputStream(SocketChannel channel) {
+        return new BufferedInputStream(new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] next = new byte[1];
+                return read(next, 0, 1) == -1 ? -1 : next[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                return length == 0 ? 0 : channel.read(ByteBuffer.wrap(buffer, offset, length));
+            }
+        });
+    }
+
+    public static OutputStream newOutputStream(SocketChannel channel) {
+        return new BufferedOutputStream(new OutputStream() {
+            @Override
+            public void write(int value) throws IOException {
+                write(new byte[]{(byte) value}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                ByteBuffer data = ByteBuffer.wrap(buffer, offset, length);
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            }
+        });
+    }
+
+    public record Request(String name, byte[] source) {
+    }
+}
@@ -0,0 +1,304 @@
+package com.berkebakar.AstCreator;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// Reads the Java sources of a dataset file without extracting it to disk: the .java entries of a .tar or .zip archive,
+// or the lines of a .jsonl file, each a JSON object with the source in input.jsonlSourceField and its name in
+// input.jsonlNameField. A source is named by a path inside the dataset, e.g. corpus.tar/src/Foo.java, which is only
+// used for output names, the index files and output.incremental. Tar entries and JSONL files are memory mapped.
+public final class DatasetReader {
+    private static final int TAR_BLOCK_SIZE = 512;
+    private static final long JSONL_WINDOW_SIZE = 64L * 1024 * 1024; // mapped at a time, grown for longer lines
+
+    private DatasetReader() {
+    }
+
+    public static boolean isDataset(Path path) {
+        String fileName = path.getFileName().toString();
+        return fileName.endsWith(".tar") || fileName.endsWith(".zip") || fileName.endsWith(".jsonl");
+    }
+
+    // sources in dataset order, created lazily, so only the ones being processed are in memory. Sources that are
+    // skipped by output.incremental or budget.maxSourceBytes are left out. Close the stream to close the dataset.
+    public static Stream<AstCreator.Source> read(Path dataset, AstConfig config) throws IOException {
+        String fileName = dataset.getFileName().toString();
+        SourceIterator sources;
+        if (fileName.endsWith(".tar")) {
+            sources = new TarSources(dataset, config);
+        } else if (fileName.endsWith(".zip")) {
+            sources = new ZipSources(dataset, config);
+        } else {
+            sources = new JsonlSources(dataset, config);
+        }
+        return stream(sources);
+    }
+
+    // the sources of the iterator, closing the stream closes the iterator
+    static Stream<AstCreator.Source> stream(SourceIterator sources) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(sources, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    try {
+                        sources.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    // iterates by reading ahead until the next source that is not skipped, also used by InputManifest
+    abstract static class SourceIterator implements Iterator<AstCreator.Source>, Closeable {
+        private AstCreator.Source next;
+
+        // the next source, a skipped one is null, throws NoSuchElementException at the end of the dataset
+        protected abstract AstCreator.Source readNext() throws IOException;
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null) {
+                    next = readNext();
+                }
+                return true;
+            } catch (NoSuchElementException e) {
+                return false;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public AstCreator.Source next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            AstCreator.Source source = next;
+            next = null;
+            return source;
+        }
+    }
+
+    // ustar archives with the long names of GNU tar and pax headers
+    private static final class TarSources extends SourceIterator {
+        private final Path dataset;
+        private final AstConfig config;
+        private final FileChannel channel;
+        private final ByteBuffer header = ByteBuffer.allocate(TAR_BLOCK_SIZE);
+        private long position = 0;
+        private String longName; // of the next entry, from a GNU 'L' or pax 'x' header
+
+        TarSources(Path dataset, AstConfig config) throws IOException {
+            this.dataset = dataset;
+            this.config = config;
+            this.channel = FileChannel.open(dataset, StandardOpenOption.READ);
+        }
+
+        @Override
+        protected AstCreator.Source readNext() throws IOException {
+            header.clear();
+            while (header.hasRemaining()) {
+                if (channel.read(header, position + header.position()) < 0) {
+                    throw new NoSuchElementException();
+                }
+            }
+            byte[] block = header.array();
+            if (block[0] == 0) { // the archive ends with empty blocks
+                throw new NoSuchElementException();
+            }
+            long size = parseOctal(block, 124, 12);
+            byte type = block[156];
+            long dataPosition = position + TAR_BLOCK_SIZE;
+            position = dataPosition + (size + TAR_BLOCK_SIZE - 1) / TAR_BLOCK_SIZE * TAR_BLOCK_SIZE;
+
+            if (type == 'L') {
+                longName = trimNul(SourceDecoder.read(channel, dataPosition, size));
+                return null;
+            } else if (type == 'x') {
+                longName = parsePaxPath(SourceDecoder.read(channel, dataPosition, size));
+                return null;
+            }
+            String name = longName != null ? longName : getName(block);
+            longName = null;
+            if ((type != '0' && type != 0) || !name.endsWith(".java")) { // directories, links and other files
+                return null;
+            }
+            return AstCreator.readSource(dataset.resolve(name), SourceDecoder.read(channel, dataPosition, size), config);
+        }
+
+        private static String getName(byte[] block) {
+            String name = readString(block, 0, 100);
+            String prefix = readString(block, 345, 155); // ustar splits long names
+            return prefix.isEmpty() ? name : prefix + "/" + name;
+        }
+
+        // records of "<length> <key>=<value>\n", only path is used
+        private static String parsePaxPath(ByteBuffer records) {
+            for (String record : StandardCharsets.UTF_8.decode(records).toString().split("\n")) {
+                int keyStart = record.indexOf(' ') + 1;
+                if (record.startsWith("path=", keyStart)) {
+                    return record.substring(keyStart + "path=".length());
+                }
+            }
+            return null;
+        }
+
+        private static String trimNul(ByteBuffer bytes) {
+            String value = StandardCharsets.UTF_8.decode(bytes).toString();
+            int end = value.indexOf(0);
+            return end < 0 ? value : value.substring(0, end);
+        }
+
+        private static String readString(byte[] block, int offset, int length) {
+            int end = offset;
+            while (end < offset + length && block[end] != 0) {
+                end++;
+            }
+            return new String(block, offset, end - offset, StandardCharsets.UTF_8);
+        }
+
+        private static long parseOctal(byte[] block, int offset, int length) {
+            long value = 0;
+            for (int i = offset; i < offset + length && block[i] != 0 && block[i] != ' '; i++) {
+                value = value * 8 + (block[i] - '0');
+            }
+            return value;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // entries are inflated into memory one at a time, compressed data cannot be mapped
+    private static final class ZipSources extends SourceIterator {
+        private final Path dataset;
+        private final AstConfig config;
+        private final ZipFile zipFile;
+        private final Enumeration<? extends ZipEntry> entries;
+
+        ZipSources(Path dataset, AstConfig config) throws IOException {
+            this.dataset = dataset;
+            this.config = config;
+            this.zipFile = new ZipFile(dataset.toFile());
+            this.entries = zipFile.entries();
+        }
+
+        @Override
+        protected AstCreator.Source readNext() throws IOException {
+            ZipEntry entry = entries.nextElement();
+            if (entry.isDirectory() || !entry.getName().endsWith(".java")) {
+                return null;
+            }
+            try (InputStream input = zipFile.getInputStream(entry)) {
+                return AstCreator.readSource(dataset.resolve(entry.getName()), ByteBuffer.wrap(input.readAllBytes()), config);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            zipFile.close();
+        }
+    }
+
+    // mapped a window at a time, so files larger than 2 GB can be read
+    private static final class JsonlSources extends SourceIterator {
+        private final Path dataset;
+        private final AstConfig config;
+        private final String datasetName;
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer window;
+        private long windowPosition = 0;
+        private long windowSize = JSONL_WINDOW_SIZE;
+        private long lineNumber = 0;
+
+        JsonlSources(Path dataset, AstConfig config) throws IOException {
+            this.dataset = dataset;
+            this.config = config;
+            String fileName = dataset.getFileName().toString();
+            this.datasetName = fileName.substring(0, fileName.length() - ".jsonl".length());
+            this.channel = FileChannel.open(dataset, StandardOpenOption.READ);
+            this.size = channel.size();
+            this.window = map(0);
+        }
+
+        private MappedByteBuffer map(long position) throws IOException {
+            windowPosition = position;
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(windowSize, size - position));
+        }
+
+        @Override
+        protected AstCreator.Source readNext() throws IOException {
+            if (windowPosition + window.position() >= size) {
+                throw new NoSuchElementException();
+            }
+            int lineStart = window.position();
+            int lineEnd = lineStart;
+            while (lineEnd < window.limit() && window.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            if (lineEnd == window.limit() && windowPosition + lineEnd < size) { // the line continues after the window
+                if (lineStart == 0) {
+                    windowSize *= 2;
+                }
+                window = map(windowPosition + lineStart);
+                return null;
+            }
+            window.position(Math.min(lineEnd + 1, window.limit()));
+            lineNumber++;
+            return parseLine(window.slice(lineStart, lineEnd - lineStart));
+        }
+
+        private AstCreator.Source parseLine(ByteBuffer line) {
+            String json = StandardCharsets.UTF_8.decode(line).toString().trim();
+            if (json.isEmpty()) {
+                return null;
+            }
+            JsonObject object;
+            try {
+                object = JsonParser.parseString(json).getAsJsonObject();
+            } catch (JsonParseException | IllegalStateException e) {
+                System.err.println("Line " + lineNumber + " of " + dataset + " is not a JSON object, skipping it.");
+                return null;
+            }
+            JsonElement sourceCode = object.get(config.getJsonlSourceField());
+            if (sourceCode == null || !sourceCode.isJsonPrimitive()) {
+                System.err.println("Line " + lineNumber + " of " + dataset + " has no " + config.getJsonlSourceField() + ", skipping it.");
+                return null;
+            }
+            JsonElement name = object.get(config.getJsonlNameField());
+            String sourceName = name != null && name.isJsonPrimitive() ? name.getAsString() : datasetName + "-" + lineNumber;
+            // the escapes of JSON strings have to be decoded, so the source is encoded again instead of mapped
+            return AstCreator.readSource(dataset.resolve(sourceName.replace('/', '_').replace('\\', '_') + ".java"),
+                    StandardCharsets.UTF_8.encode(sourceCode.getAsString()), config);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
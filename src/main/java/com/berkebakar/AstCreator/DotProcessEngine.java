@@ -0,0 +1,139 @@
+package com.berkebakar.AstCreator;
+
+import guru.nidi.graphviz.engine.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+
+// Graphviz engine that keeps long-lived local dot processes and streams graphs through their stdin/stdout.
+// dot only does the layout and writes SVG, graphviz-java rasterizes it like it does for the J2V8 engine.
+// A process is used by one thread at a time, so the pool grows to the number of threads rendering concurrently.
+public class DotProcessEngine extends AbstractGraphvizEngine {
+    private final String dotCommand;
+    private final long timeoutMillis;
+    private final BlockingQueue<DotProcess> idleProcesses = new LinkedBlockingQueue<>();
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "dot-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public DotProcessEngine(String dotCommand, long timeoutMillis) {
+        super(true);
+        this.dotCommand = dotCommand;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    protected void doInit() throws IOException {
+        idleProcesses.add(new DotProcess(dotCommand)); // fails early if dot cannot be started
+    }
+
+    @Override
+    public EngineResult execute(String src, Options options, Rasterizer rasterizer) {
+        if (options.format != Format.PNG && options.format != Format.SVG && options.format != Format.SVG_STANDALONE) {
+            throw new GraphvizException("Format " + options.format + " is not supported by " + this);
+        }
+
+        DotProcess dotProcess;
+        try {
+            dotProcess = borrowProcess();
+        } catch (IOException e) {
+            throw new GraphvizException("Could not start " + dotCommand + ": " + e.getMessage());
+        }
+
+        // kill the process if the layout takes too long, this makes the blocked read below fail
+        ScheduledFuture<?> timeout = watchdog.schedule(dotProcess::timeOut, timeoutMillis, TimeUnit.MILLISECONDS);
+        try {
+            String svg = dotProcess.render(src);
+            if (timeout.cancel(false)) {
+                idleProcesses.add(dotProcess);
+            } else { // watchdog fired right after the SVG was read
+                dotProcess.kill();
+            }
+            return EngineResult.fromString(svg);
+        } catch (IOException e) {
+            timeout.cancel(false);
+            dotProcess.kill(); // a new process is started for the next graph
+            if (dotProcess.isTimedOut()) {
+                throw new GraphvizException("Layout took longer than " + timeoutMillis + " ms, " + dotCommand + " process is killed.");
+            }
+            throw new GraphvizException(dotCommand + " process failed: " + e.getMessage());
+        }
+    }
+
+    private DotProcess borrowProcess() throws IOException {
+        DotProcess dotProcess;
+        while ((dotProcess = idleProcesses.poll()) != null) {
+            if (dotProcess.isAlive()) {
+                return dotProcess;
+            }
+            dotProcess.kill(); // crashed while idle, replace it
+        }
+        return new DotProcess(dotCommand);
+    }
+
+    @Override
+    public void close() {
+        DotProcess dotProcess;
+        while ((dotProcess = idleProcesses.poll()) != null) {
+            dotProcess.kill();
+        }
+        watchdog.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "DotProcessEngine(" + dotCommand + ")";
+    }
+
+    private static class DotProcess {
+        private final Process process;
+        private final Writer input;
+        private final BufferedReader output;
+        private volatile boolean timedOut = false;
+
+        DotProcess(String dotCommand) throws IOException {
+            this.process = new ProcessBuilder(dotCommand, "-Tsvg")
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            this.input = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            this.output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        // dot lays out each graph as soon as it is read and writes one SVG document per graph
+        String render(String src) throws IOException {
+            input.write(src);
+            input.write('\n');
+            input.flush();
+
+            StringBuilder svg = new StringBuilder();
+            String line;
+            while ((line = output.readLine()) != null) {
+                svg.append(line).append('\n');
+                if (line.equals("</svg>")) {
+                    return svg.toString();
+                }
+            }
+            throw new EOFException("process exited before the SVG was complete");
+        }
+
+        void timeOut() {
+            timedOut = true;
+            kill();
+        }
+
+        boolean isTimedOut() {
+            return timedOut;
+        }
+
+        boolean isAlive() {
+            return process.isAlive();
+        }
+
+        void kill() {
+            process.destroyForcibly();
+        }
+    }
+}
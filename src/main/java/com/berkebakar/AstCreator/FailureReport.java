@@ -0,0 +1,60 @@
+package com.berkebakar.AstCreator;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+// asts.failures.csv in the output directory: sources and ASTs that were skipped or degraded by the budget.* limits
+// and ASTs that could not be rendered, one line each. The file of an earlier run is deleted, a new one is only
+// created when the first failure of this run happens.
+public class FailureReport implements Closeable {
+    public static final String FILE_NAME = "asts.failures.csv";
+
+    public enum Action {
+        DEGRADED, // written at statement level
+        SKIPPED, // not written on purpose
+        FAILED // not written because of an error
+    }
+
+    private final Path reportPath;
+    private BufferedWriter report;
+    private final int[] counts = new int[Action.values().length];
+
+    public FailureReport(Path outputPath) throws IOException {
+        this.reportPath = outputPath.resolve(FILE_NAME);
+        Files.deleteIfExists(reportPath);
+    }
+
+    // name is the AST name, or empty if the whole source is affected
+    public synchronized void record(Path inputPath, String name, String reason, Action action) throws IOException {
+        if (report == null) {
+            report = Files.newBufferedWriter(reportPath, StandardCharsets.UTF_8);
+            report.write("source,name,action,reason");
+            report.newLine();
+        }
+        report.write(Csv.field(inputPath.toString()) + "," + Csv.field(name) + "," + action.name().toLowerCase(Locale.ROOT) + "," + Csv.field(reason));
+        report.newLine();
+        report.flush(); // kept when the run is killed because of another stalled file
+        counts[action.ordinal()]++;
+    }
+
+    // null if nothing failed
+    public synchronized String getSummary() {
+        if (report == null) {
+            return null;
+        }
+        return "Degraded " + counts[Action.DEGRADED.ordinal()] + ", skipped " + counts[Action.SKIPPED.ordinal()] + " and failed "
+                + counts[Action.FAILED.ordinal()] + " ASTs, see " + FILE_NAME + ".";
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (report != null) {
+            report.close();
+        }
+    }
+}
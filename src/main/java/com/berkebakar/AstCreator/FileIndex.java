@@ -0,0 +1,51 @@
+package com.berkebakar.AstCreator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// asts.index.csv of output.layout=files with --input-manifest: one line per output file with its source and the labels
+// of its manifest record, so outputs and labels can be loaded together. The shard and tar layouts have the labels in
+// their own index files. With output.incremental lines are appended to the index of the earlier runs, a later line of
+// the same file replaces the earlier ones.
+public class FileIndex implements Closeable {
+    public static final String FILE_NAME = NpyShardWriter.INDEX_FILE_NAME;
+
+    private final BufferedWriter index;
+
+    public FileIndex(Path outputPath, List<String> labelColumns, boolean append) throws IOException {
+        Path indexPath = outputPath.resolve(FILE_NAME);
+        String header = "file,source" + Csv.trailingFields(labelColumns);
+        // the index of a run with other label columns is replaced
+        boolean continued = append && Files.exists(indexPath) && header.equals(readHeader(indexPath));
+        if (continued) {
+            this.index = Files.newBufferedWriter(indexPath, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        } else {
+            this.index = Files.newBufferedWriter(indexPath, StandardCharsets.UTF_8);
+            index.write(header);
+            index.newLine();
+        }
+    }
+
+    private static String readHeader(Path indexPath) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(indexPath, StandardCharsets.UTF_8)) {
+            return reader.readLine();
+        }
+    }
+
+    public synchronized void record(Path inputPath, String fileName, List<String> labels) throws IOException {
+        index.write(Csv.field(fileName) + "," + Csv.field(inputPath.toString()) + Csv.trailingFields(labels));
+        index.newLine();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        index.close();
+    }
+}
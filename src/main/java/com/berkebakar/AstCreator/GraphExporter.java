@@ -0,0 +1,109 @@
+package com.berkebakar.AstCreator;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+// Writes the graph built by GraphicalAstVisitor as structure instead of an image, nothing is rendered.
+// Nodes are numbered from 0 in visit order (the AstGraph ids, also used as DOT node names and GraphML node ids),
+// node types are the ids of ASTNode.getNodeType().
+// Edges are listed grouped by their source node, in visit order of the targets.
+public final class GraphExporter {
+    private GraphExporter() {
+    }
+
+    public static byte[] export(AstGraph graph, AstConfig config) throws IOException {
+        return switch (config.getOutputFormat()) {
+            case JSON -> toJson(graph, config);
+            case DOT -> graph.toMutableGraph(config).toString().getBytes(StandardCharsets.UTF_8);
+            case GRAPHML -> toGraphMl(graph, config);
+            case EDGELIST -> toEdgeList(graph);
+            default -> throw new IllegalArgumentException(config.getOutputFormat() + " is not a graph format");
+        };
+    }
+
+    // {"nodes":[{"type":31,"name":"MethodDeclaration"},...],"edges":[[0,1],...]}, labels only with output.detailed
+    private static byte[] toJson(AstGraph graph, AstConfig config) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (JsonWriter json = new JsonWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+            json.beginObject();
+            json.name("nodes").beginArray();
+            for (int node = 0; node < graph.size(); node++) {
+                String name = config.getNodeStyle(graph.getType(node)).name();
+                String label = graph.getLabel(node, config);
+                json.beginObject();
+                json.name("type").value(graph.getType(node));
+                json.name("name").value(name);
+                if (!label.equals(name)) {
+                    json.name("label").value(label);
+                }
+                json.endObject();
+            }
+            json.endArray();
+            json.name("edges").beginArray();
+            AstGraph.Children children = graph.getChildren();
+            for (int node = 0; node < graph.size(); node++) {
+                for (int i = 0; i < children.count(node); i++) {
+                    json.beginArray().value(node).value(children.get(node, i)).endArray();
+                }
+            }
+            json.endArray();
+            json.endObject();
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] toGraphMl(AstGraph graph, AstConfig config) {
+        StringWriter xml = new StringWriter();
+        xml.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.write("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n");
+        xml.write("  <key id=\"type\" for=\"node\" attr.name=\"type\" attr.type=\"int\"/>\n");
+        xml.write("  <key id=\"name\" for=\"node\" attr.name=\"name\" attr.type=\"string\"/>\n");
+        xml.write("  <key id=\"label\" for=\"node\" attr.name=\"label\" attr.type=\"string\"/>\n");
+        xml.write("  <graph id=\"AST\" edgedefault=\"directed\">\n");
+        for (int node = 0; node < graph.size(); node++) {
+            xml.write("    <node id=\"" + node + "\">");
+            xml.write("<data key=\"type\">" + graph.getType(node) + "</data>");
+            xml.write("<data key=\"name\">" + config.getNodeStyle(graph.getType(node)).name() + "</data>");
+            xml.write("<data key=\"label\">" + escapeXml(graph.getLabel(node, config)) + "</data>");
+            xml.write("</node>\n");
+        }
+        AstGraph.Children children = graph.getChildren();
+        for (int node = 0; node < graph.size(); node++) {
+            for (int i = 0; i < children.count(node); i++) {
+                xml.write("    <edge source=\"" + node + "\" target=\"" + children.get(node, i) + "\"/>\n");
+            }
+        }
+        xml.write("  </graph>\n");
+        xml.write("</graphml>\n");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // little endian int32 values: node count, node types, edge count, then source and target of each edge
+    private static byte[] toEdgeList(AstGraph graph) {
+        AstGraph.Children children = graph.getChildren();
+        int edgeCount = children.ids().length;
+        ByteBuffer buffer = ByteBuffer.allocate(4 * (2 + graph.size() + 2 * edgeCount)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(graph.size());
+        for (int node = 0; node < graph.size(); node++) {
+            buffer.putInt(graph.getType(node));
+        }
+        buffer.putInt(edgeCount);
+        for (int node = 0; node < graph.size(); node++) {
+            for (int i = 0; i < children.count(node); i++) {
+                buffer.putInt(node).putInt(children.get(node, i));
+            }
+        }
+        return buffer.array();
+    }
+
+    private static String escapeXml(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
@@ -1,178 +1,188 @@
 package com.berkebakar.AstCreator;
 
-import guru.nidi.graphviz.attribute.*;
-import guru.nidi.graphviz.model.MutableGraph;
-import guru.nidi.graphviz.model.MutableNode;
 import org.eclipse.jdt.core.dom.*;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Properties;
-
-import static guru.nidi.graphviz.model.Factory.mutGraph;
-import static guru.nidi.graphviz.model.Factory.mutNode;
 
 public class GraphicalAstVisitor extends ASTVisitor {
-    private final MutableGraph graph;
-    private final Properties properties;
+    private final AstGraph graph = new AstGraph();
+    private final AstConfig config;
+    // emitted nodes on the path from the root to the currently visited node and their ids in the graph, nearest one last
+    private ASTNode[] emittedAncestors = new ASTNode[32];
+    private int[] emittedAncestorIds = new int[32];
+    private int emittedAncestorCount = 0;
 
     private final boolean isExpressionsIncluded;
+    private final int maxNodes; // budget.maxNodes, 0 for no limit
+    private boolean overBudget = false;
+
+    public GraphicalAstVisitor(AstConfig config) {
+        this(config, config.isExpressionsIncluded());
+    }
 
-    public GraphicalAstVisitor(Properties properties) {
+    // expressionsIncluded replaces output.includeExpressions, for ASTs degraded to statement level
+    public GraphicalAstVisitor(AstConfig config, boolean expressionsIncluded) {
         super(false);
-        this.graph = mutGraph("AST").setDirected(true);
-        this.properties = properties;
-        this.isExpressionsIncluded = properties.getProperty("output.includeExpressions", "true").equals("true");
+        this.config = config;
+        this.isExpressionsIncluded = expressionsIncluded;
+        this.maxNodes = config.getMaxNodes();
     }
 
-    public MutableGraph getGraph() {
+    public AstGraph getGraph() {
         return graph;
     }
 
-    private String getNodeLabel(ASTNode node) {
+    // true if the AST has more than budget.maxNodes nodes, the graph is incomplete then
+    public boolean isOverBudget() {
+        return overBudget;
+    }
+
+    @Override
+    public boolean preVisit2(ASTNode node) {
+        return !overBudget; // the rest of the AST is not walked once the budget is used up
+    }
+
+    private String getNodeLabel(ASTNode node, AstConfig.NodeStyle nodeStyle) {
         StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append(node.getClass().getSimpleName());
-
-        // print details if user declared output.detailed in properties file
-        if (Boolean.parseBoolean(properties.getProperty("output.detailed", "false"))) {
-            stringBuilder.append("\n");
-            switch (node.getNodeType()) {
-                case ASTNode.TYPE_DECLARATION -> {
-                    TypeDeclaration typeDeclaration = (TypeDeclaration) node;
-                    stringBuilder.append("Name: ").append(typeDeclaration.getName().getIdentifier());
-                    stringBuilder.append("Kind: ").append(typeDeclaration.isInterface() ? "Interface" : "Class");
-                }
-                case ASTNode.METHOD_DECLARATION -> {
-                    MethodDeclaration methodDeclaration = (MethodDeclaration) node;
-                    stringBuilder.append("Name: ").append(methodDeclaration.getName().getIdentifier()).append("\n");
-                    stringBuilder.append(formatListProperties("Parameters", methodDeclaration.parameters()));
-                    stringBuilder.append("Return Type: ").append(methodDeclaration.getReturnType2());
-                }
-                case ASTNode.SINGLE_VARIABLE_DECLARATION -> {
-                    SingleVariableDeclaration variableDeclaration = (SingleVariableDeclaration) node;
-                    stringBuilder.append(formatListProperties("Modifier", variableDeclaration.modifiers()));
-                    stringBuilder.append("Name: ").append(variableDeclaration.getName().getIdentifier()).append("\n");
-                    stringBuilder.append("Type: ").append(variableDeclaration.getType().toString());
-                }
-                case ASTNode.ASSERT_STATEMENT -> {
-                    AssertStatement assertStatement = (AssertStatement) node;
-                    stringBuilder.append("Expression: ").append(assertStatement.getExpression().toString()).append("\n");
-                    stringBuilder.append("Message: ").append(assertStatement.getMessage());
-                }
-                case ASTNode.DO_STATEMENT -> {
-                    DoStatement doStatement = (DoStatement) node;
-                    stringBuilder.append("Condition: ").append(doStatement.getExpression().toString());
-                }
-                case ASTNode.ENHANCED_FOR_STATEMENT -> {
-                    EnhancedForStatement enhancedForStatement = (EnhancedForStatement) node;
-                    stringBuilder.append("Expression: ").append(enhancedForStatement.getExpression().toString());
-                }
-                case ASTNode.EXPRESSION_STATEMENT -> {
-                    ExpressionStatement expressionStatement = (ExpressionStatement) node;
-                    stringBuilder.append("Expression: ").append(expressionStatement.getExpression().toString());
-                }
-                case ASTNode.FOR_STATEMENT -> {
-                    ForStatement forStatement = (ForStatement) node;
-                    stringBuilder.append("Condition: ").append(forStatement.getExpression()).append("\n");
-                    stringBuilder.append(formatListProperties("Update", forStatement.updaters()));
-                }
-                case ASTNode.IF_STATEMENT -> {
-                    IfStatement ifStatement = (IfStatement) node;
-                    stringBuilder.append("Condition: ").append(ifStatement.getExpression().toString());
-                }
-                case ASTNode.LABELED_STATEMENT -> {
-                    LabeledStatement labeledStatement = (LabeledStatement) node;
-                    stringBuilder.append("Label: ").append(labeledStatement.getLabel().getIdentifier());
-                }
-                case ASTNode.RETURN_STATEMENT -> {
-                    ReturnStatement returnStatement = (ReturnStatement) node;
-                    stringBuilder.append("Returns: ").append(returnStatement.getExpression());
-                }
-                case ASTNode.SWITCH_CASE -> {
-                    SwitchCase switchCase = (SwitchCase) node;
-                    stringBuilder.append("isDefaultCase: ").append(switchCase.isDefault());
-                    stringBuilder.append(formatListProperties("Condition", switchCase.expressions()));
-                }
-                case ASTNode.SWITCH_STATEMENT -> {
-                    SwitchStatement switchStatement = (SwitchStatement) node;
-                    stringBuilder.append("Condition: ").append(switchStatement.getExpression().toString());
-                }
-                case ASTNode.SYNCHRONIZED_STATEMENT -> {
-                    SynchronizedStatement synchronizedStatement = (SynchronizedStatement) node;
-                    stringBuilder.append("Lock: ").append(synchronizedStatement.getExpression().toString());
-                }
-                case ASTNode.THROW_STATEMENT -> {
-                    ThrowStatement throwStatement = (ThrowStatement) node;
-                    stringBuilder.append("Throws:").append(throwStatement.getExpression().toString());
-                }
-                case ASTNode.VARIABLE_DECLARATION_STATEMENT -> {
-                    VariableDeclarationStatement variableDeclaration = (VariableDeclarationStatement) node;
-                    stringBuilder.append(formatListProperties("Modifier", variableDeclaration.modifiers()));
-                    stringBuilder.append("Type: ").append(variableDeclaration.getType().toString()).append("\n");
-                    stringBuilder.append("Name: ");
-                    List fragments = variableDeclaration.fragments();
-                    for (int i = 0; i < fragments.size(); i++) {
-                        stringBuilder.append(((VariableDeclarationFragment) fragments.get(i)).getName()).append(i == fragments.size() - 1 ? "" : ", ");
-                    }
-                }
-                case ASTNode.WHILE_STATEMENT -> {
-                    WhileStatement whileStatement = (WhileStatement) node;
-                    stringBuilder.append("Condition: ").append(whileStatement.getExpression().toString());
+        stringBuilder.append(nodeStyle.name());
+        stringBuilder.append("\n");
+        switch (node.getNodeType()) {
+            case ASTNode.TYPE_DECLARATION -> {
+                TypeDeclaration typeDeclaration = (TypeDeclaration) node;
+                stringBuilder.append("Name: ").append(typeDeclaration.getName().getIdentifier());
+                stringBuilder.append("Kind: ").append(typeDeclaration.isInterface() ? "Interface" : "Class");
+            }
+            case ASTNode.METHOD_DECLARATION -> {
+                MethodDeclaration methodDeclaration = (MethodDeclaration) node;
+                stringBuilder.append("Name: ").append(methodDeclaration.getName().getIdentifier()).append("\n");
+                stringBuilder.append(formatListProperties("Parameters", methodDeclaration.parameters()));
+                stringBuilder.append("Return Type: ").append(methodDeclaration.getReturnType2());
+            }
+            case ASTNode.SINGLE_VARIABLE_DECLARATION -> {
+                SingleVariableDeclaration variableDeclaration = (SingleVariableDeclaration) node;
+                stringBuilder.append(formatListProperties("Modifier", variableDeclaration.modifiers()));
+                stringBuilder.append("Name: ").append(variableDeclaration.getName().getIdentifier()).append("\n");
+                stringBuilder.append("Type: ").append(variableDeclaration.getType().toString());
+            }
+            case ASTNode.ASSERT_STATEMENT -> {
+                AssertStatement assertStatement = (AssertStatement) node;
+                stringBuilder.append("Expression: ").append(assertStatement.getExpression().toString()).append("\n");
+                stringBuilder.append("Message: ").append(assertStatement.getMessage());
+            }
+            case ASTNode.DO_STATEMENT -> {
+                DoStatement doStatement = (DoStatement) node;
+                stringBuilder.append("Condition: ").append(doStatement.getExpression().toString());
+            }
+            case ASTNode.ENHANCED_FOR_STATEMENT -> {
+                EnhancedForStatement enhancedForStatement = (EnhancedForStatement) node;
+                stringBuilder.append("Expression: ").append(enhancedForStatement.getExpression().toString());
+            }
+            case ASTNode.EXPRESSION_STATEMENT -> {
+                ExpressionStatement expressionStatement = (ExpressionStatement) node;
+                stringBuilder.append("Expression: ").append(expressionStatement.getExpression().toString());
+            }
+            case ASTNode.FOR_STATEMENT -> {
+                ForStatement forStatement = (ForStatement) node;
+                stringBuilder.append("Condition: ").append(forStatement.getExpression()).append("\n");
+                stringBuilder.append(formatListProperties("Update", forStatement.updaters()));
+            }
+            case ASTNode.IF_STATEMENT -> {
+                IfStatement ifStatement = (IfStatement) node;
+                stringBuilder.append("Condition: ").append(ifStatement.getExpression().toString());
+            }
+            case ASTNode.LABELED_STATEMENT -> {
+                LabeledStatement labeledStatement = (LabeledStatement) node;
+                stringBuilder.append("Label: ").append(labeledStatement.getLabel().getIdentifier());
+            }
+            case ASTNode.RETURN_STATEMENT -> {
+                ReturnStatement returnStatement = (ReturnStatement) node;
+                stringBuilder.append("Returns: ").append(returnStatement.getExpression());
+            }
+            case ASTNode.SWITCH_CASE -> {
+                SwitchCase switchCase = (SwitchCase) node;
+                stringBuilder.append("isDefaultCase: ").append(switchCase.isDefault());
+                stringBuilder.append(formatListProperties("Condition", switchCase.expressions()));
+            }
+            case ASTNode.SWITCH_STATEMENT -> {
+                SwitchStatement switchStatement = (SwitchStatement) node;
+                stringBuilder.append("Condition: ").append(switchStatement.getExpression().toString());
+            }
+            case ASTNode.SYNCHRONIZED_STATEMENT -> {
+                SynchronizedStatement synchronizedStatement = (SynchronizedStatement) node;
+                stringBuilder.append("Lock: ").append(synchronizedStatement.getExpression().toString());
+            }
+            case ASTNode.THROW_STATEMENT -> {
+                ThrowStatement throwStatement = (ThrowStatement) node;
+                stringBuilder.append("Throws:").append(throwStatement.getExpression().toString());
+            }
+            case ASTNode.VARIABLE_DECLARATION_STATEMENT -> {
+                VariableDeclarationStatement variableDeclaration = (VariableDeclarationStatement) node;
+                stringBuilder.append(formatListProperties("Modifier", variableDeclaration.modifiers()));
+                stringBuilder.append("Type: ").append(variableDeclaration.getType().toString()).append("\n");
+                stringBuilder.append("Name: ");
+                List fragments = variableDeclaration.fragments();
+                for (int i = 0; i < fragments.size(); i++) {
+                    stringBuilder.append(((VariableDeclarationFragment) fragments.get(i)).getName()).append(i == fragments.size() - 1 ? "" : ", ");
                 }
             }
+            case ASTNode.WHILE_STATEMENT -> {
+                WhileStatement whileStatement = (WhileStatement) node;
+                stringBuilder.append("Condition: ").append(whileStatement.getExpression().toString());
+            }
         }
 
         return stringBuilder.toString();
     }
 
     private void addNode(ASTNode node) {
-        if (properties.getProperty(node.getClass().getSimpleName() + ".visit", "false").equals("false")){
+        AstConfig.NodeStyle nodeStyle = config.getNodeStyle(node.getNodeType());
+        if (!nodeStyle.visited()){
             return;
         }
-
-        Shape nodeShape = ShapeMap.getShape(properties.getProperty(node.getClass().getSimpleName() + ".shape", "box"));
-        Color nodeColor = Color.named(properties.getProperty(node.getClass().getSimpleName() + ".color", "white"));
-        int width = Integer.parseInt(properties.getProperty("output.nodeWidth", "2"));
-        int height = Integer.parseInt(properties.getProperty("output.nodeHeight", "2"));
-        boolean fill = false;
-        if (properties.getProperty("output.fillNodes", "true").equals("true")) {
-            nodeColor = nodeColor.fill();
-            fill = true;
+        if (maxNodes > 0 && graph.size() >= maxNodes) { // not added, so getParentInGraph gives no edge for it either
+            overBudget = true;
+            return;
         }
 
-        graph.add(mutNode(Integer.toString(node.hashCode()))
-                .add(Label.of(getNodeLabel(node)))
-                .add(nodeColor)
-                .add(nodeShape)
-                .add(fill ? Style.FILLED : Style.SOLID)
-                .add(Size.mode(Size.Mode.FIXED).size(width, height))
-        );
+        // print details only if user declared output.detailed in properties file, otherwise the type name is the label
+        int id = graph.addNode(node.getNodeType(), config.isDetailed() ? getNodeLabel(node, nodeStyle) : null);
+        if (emittedAncestorCount == emittedAncestors.length) {
+            emittedAncestors = Arrays.copyOf(emittedAncestors, emittedAncestorCount * 2);
+            emittedAncestorIds = Arrays.copyOf(emittedAncestorIds, emittedAncestorCount * 2);
+        }
+        emittedAncestors[emittedAncestorCount] = node;
+        emittedAncestorIds[emittedAncestorCount] = id;
+        emittedAncestorCount++;
     }
 
     private void addEdge(ASTNode source, ASTNode target) {
         if (source != null) // no need to add edge if there is no parent
-            graph.add(mutNode(Integer.toString(source.hashCode())).addLink(mutNode(Integer.toString(target.hashCode()))));
+            graph.setParent(getIdInGraph(target), getIdInGraph(source));
+    }
+
+    // both ends of an edge are among the top two emitted ancestors, so this does not search far
+    private int getIdInGraph(ASTNode node) {
+        for (int i = emittedAncestorCount - 1; i >= 0; i--) {
+            if (emittedAncestors[i] == node) {
+                return emittedAncestorIds[i];
+            }
+        }
+        throw new IllegalStateException(node.getClass().getSimpleName() + " is not an emitted ancestor");
     }
 
     private ASTNode getParentInGraph(ASTNode node) {
-        if (properties.getProperty(node.getClass().getSimpleName() + ".visit", "false").equals("false")){
+        if (emittedAncestorCount == 0 || emittedAncestors[emittedAncestorCount - 1] != node) { // node is not added to the graph
             return null;
         }
+        return emittedAncestorCount > 1 ? emittedAncestors[emittedAncestorCount - 2] : null;
+    }
 
-        ASTNode currentParentNode = node.getParent();
-
-        while (currentParentNode != null) {
-
-            for (MutableNode currentNode : graph.nodes()) {
-                if (currentNode.name().equals(Label.of(Integer.toString(currentParentNode.hashCode())))) {
-                    return currentParentNode;
-                }
-            }
-            currentParentNode = currentParentNode.getParent();
+    @Override
+    public void postVisit(ASTNode node) {
+        if (emittedAncestorCount > 0 && emittedAncestors[emittedAncestorCount - 1] == node) { // leaving the subtree of an emitted node
+            emittedAncestors[--emittedAncestorCount] = null;
         }
-
-        return null;
     }
 
     private String formatListProperties(String propertyName, List propertyValueList) {
@@ -667,73 +677,4 @@ public class GraphicalAstVisitor extends ASTVisitor {
         addEdge(getParentInGraph(node), node);
         return true;
     }
-
-    private static class ShapeMap {
-        private static final Map<String, Shape> shapeMap = new HashMap<>();
-
-        static {
-            shapeMap.put("box", Shape.BOX);
-            shapeMap.put("ellipse", Shape.ELLIPSE);
-            shapeMap.put("oval", Shape.OVAL);
-            shapeMap.put("circle", Shape.CIRCLE);
-            shapeMap.put("point", Shape.POINT);
-            shapeMap.put("egg", Shape.EGG);
-            shapeMap.put("triangle", Shape.TRIANGLE);
-            shapeMap.put("plaintext", Shape.PLAIN_TEXT);
-            shapeMap.put("plain", Shape.PLAIN);
-            shapeMap.put("diamond", Shape.DIAMOND);
-            shapeMap.put("trapezium", Shape.TRAPEZIUM);
-            shapeMap.put("parallelogram", Shape.PARALLELOGRAM);
-            shapeMap.put("house", Shape.HOUSE);
-            shapeMap.put("pentagon", Shape.PENTAGON);
-            shapeMap.put("hexagon", Shape.HEXAGON);
-            shapeMap.put("septagon", Shape.SEPTAGON);
-            shapeMap.put("octagon", Shape.OCTAGON);
-            shapeMap.put("doublecircle", Shape.DOUBLE_CIRCLE);
-            shapeMap.put("doubleoctagon", Shape.DOUBLE_OCTAGON);
-            shapeMap.put("tripleoctagon", Shape.TRIPLE_OCTAGON);
-            shapeMap.put("invtriangle", Shape.INV_TRIANGLE);
-            shapeMap.put("invtrapezium", Shape.INV_TRAPEZIUM);
-            shapeMap.put("invhouse", Shape.INV_HOUSE);
-            shapeMap.put("Mdiamond", Shape.M_DIAMOND);
-            shapeMap.put("Msquare", Shape.M_SQUARE);
-            shapeMap.put("Mcircle", Shape.M_CIRCLE);
-            shapeMap.put("rect", Shape.RECT);
-            shapeMap.put("rectangle", Shape.RECTANGLE);
-            shapeMap.put("square", Shape.SQUARE);
-            shapeMap.put("star", Shape.STAR);
-            shapeMap.put("none", Shape.NONE);
-            shapeMap.put("underline", Shape.UNDERLINE);
-            shapeMap.put("cylinder", Shape.CYLINDER);
-            shapeMap.put("note", Shape.NOTE);
-            shapeMap.put("tab", Shape.TAB);
-            shapeMap.put("folder", Shape.FOLDER);
-            shapeMap.put("box3d", Shape.BOX_3D);
-            shapeMap.put("component", Shape.COMPONENT);
-            shapeMap.put("promoter", Shape.PROMOTER);
-            shapeMap.put("cds", Shape.CDS);
-            shapeMap.put("terminator", Shape.TERMINATOR);
-            shapeMap.put("utr", Shape.UTR);
-            shapeMap.put("primersite", Shape.PRIMER_SITE);
-            shapeMap.put("restrictionsite", Shape.RESTRICTION_SITE);
-            shapeMap.put("fivepoverhang", Shape.FIVE_P_OVERHANG);
-            shapeMap.put("threepoverhang", Shape.THREE_P_OVERHANG);
-            shapeMap.put("noverhang", Shape.N_OVERHANG);
-            shapeMap.put("assembly", Shape.ASSEMBLY);
-            shapeMap.put("signature", Shape.SIGNATURE);
-            shapeMap.put("insulator", Shape.INSULATOR);
-            shapeMap.put("ribosite", Shape.RIBO_SITE);
-            shapeMap.put("rnastab", Shape.RNA_STAB);
-            shapeMap.put("proteasesite", Shape.PROTEASE_SITE);
-            shapeMap.put("proteinstab", Shape.PROTEIN_STAB);
-            shapeMap.put("rpromoter", Shape.R_PROMOTER);
-            shapeMap.put("rarrow", Shape.R_ARROW);
-            shapeMap.put("larrow", Shape.L_ARROW);
-            shapeMap.put("lpromoter", Shape.L_PROMOTER);
-        }
-
-        public static Shape getShape(String key){
-            return shapeMap.getOrDefault(key, Shape.BOX);
-        }
-    }
 }
@@ -0,0 +1,185 @@
+package com.berkebakar.AstCreator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Remembers the sources whose ASTs are already in the output directory with output.incremental=true, so running again
+// only creates ASTs of new or changed sources. asts.incremental.csv gets one line per finished source with the SHA-256
+// of its contents and of the configuration and the names of its output files, a later line of the same source replaces
+// the earlier ones, also one of another configuration that overwrote its outputs. A source is only up to date while all
+// of its outputs are still in the output directory.
+// Lines are only appended after all outputs of a source are written and are flushed right away, so an interrupted run
+// loses at most the sources that were in progress, the next run creates them again.
+public class IncrementalManifest implements Closeable {
+    public static final String FILE_NAME = "asts.incremental.csv";
+    private static final int HASH_LENGTH = 64; // hex digits of SHA-256
+    private static final String OUTPUT_SEPARATOR = "/"; // between the output file names, which cannot contain it
+    // settings that change how fast or verbose a run is, but not the outputs of a source
+    private static final Set<String> RUN_KEYS = Set.of("output.incremental", "output.shardSizeMB", "parse.batchSize",
+            "render.timeoutMillis", "render.cacheSizeMB", "render.cacheHardLinks", "input.datasets");
+    private static final List<String> RUN_KEY_PREFIXES = List.of("log.", "metrics.", "pipeline.");
+
+    private final Path outputPath;
+    private final String configHash;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>(); // sources generated with this config
+    private final BufferedWriter manifest;
+    private final AtomicInteger skippedCount = new AtomicInteger();
+
+    public IncrementalManifest(Path outputPath, String configHash) throws IOException {
+        this.outputPath = outputPath;
+        this.configHash = configHash;
+        Path manifestPath = outputPath.resolve(FILE_NAME);
+        boolean exists = Files.exists(manifestPath) && Files.size(manifestPath) > 0;
+        boolean endsWithLineBreak = !exists || endsWithLineBreak(manifestPath);
+        if (exists) {
+            try (BufferedReader reader = Files.newBufferedReader(manifestPath, StandardCharsets.UTF_8)) {
+                List<String> record = Csv.readRecord(reader);
+                List<String> nextRecord;
+                while (record != null) {
+                    nextRecord = Csv.readRecord(reader);
+                    if (nextRecord != null || endsWithLineBreak) { // the last line was cut off by a crash otherwise
+                        readRecord(record);
+                    }
+                    record = nextRecord;
+                }
+            } catch (IOException e) { // a quoted field cut off by a crash, the lines before it are kept
+            }
+        }
+
+        this.manifest = Files.newBufferedWriter(manifestPath, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        if (!exists) {
+            manifest.write("source,sourceHash,configHash,outputs");
+            manifest.newLine();
+        } else if (!endsWithLineBreak) { // the last line was cut off by a crash, it is ignored and not continued
+            manifest.newLine();
+        }
+        manifest.flush();
+    }
+
+    // source,sourceHash,configHash,outputs where the outputs are separated by OUTPUT_SEPARATOR. A line of another
+    // config overwrote the outputs of this one, the header and lines of older versions are skipped.
+    private void readRecord(List<String> record) {
+        if (record.size() < 3 || !isHash(record.get(1)) || !isHash(record.get(2))) {
+            return;
+        }
+        String source = record.get(0);
+        if (!record.get(2).equals(configHash)) {
+            entries.remove(source);
+        } else if (record.size() == 4) {
+            String outputs = record.get(3);
+            entries.put(source, new Entry(record.get(1), outputs.isEmpty() ? List.of() : List.of(outputs.split(OUTPUT_SEPARATOR))));
+        }
+    }
+
+    private static boolean isHash(String value) {
+        if (value.length() != HASH_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.digit(value.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean endsWithLineBreak(Path path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "r")) {
+            file.seek(file.length() - 1);
+            return file.read() == '\n';
+        }
+    }
+
+    // true if the outputs of the source were created from the same contents and config before and are all still in the
+    // output directory, counted as skipped
+    public boolean isUpToDate(Path inputPath, String sourceHash) {
+        Entry entry = entries.get(getKey(inputPath));
+        if (entry == null || !entry.sourceHash().equals(sourceHash)) {
+            return false;
+        }
+        for (String output : entry.outputs()) {
+            if (!Files.exists(outputPath.resolve(output))) {
+                return false;
+            }
+        }
+        skippedCount.incrementAndGet();
+        return true;
+    }
+
+    // call only after all outputs of the source are written, outputs are their file names in the output directory
+    public void record(Path inputPath, String sourceHash, List<String> outputs) throws IOException {
+        String key = getKey(inputPath);
+        synchronized (this) {
+            manifest.write(Csv.field(key) + "," + sourceHash + "," + configHash + "," + Csv.field(String.join(OUTPUT_SEPARATOR, outputs)));
+            manifest.newLine();
+            manifest.flush();
+        }
+        entries.put(key, new Entry(sourceHash, List.copyOf(outputs)));
+    }
+
+    public int getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        manifest.close();
+    }
+
+    // absolute paths, so running from another working directory still finds the sources
+    private static String getKey(Path inputPath) {
+        return inputPath.toAbsolutePath().normalize().toString();
+    }
+
+    // of the UTF-8 bytes of a source, bytes is not moved
+    public static String hash(ByteBuffer bytes) {
+        MessageDigest digest = newDigest();
+        digest.update(bytes.duplicate());
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // the properties that can change the outputs, in key order. Node styles and unknown keys are included, the
+    // settings of how a run goes are not, so turning on output.incremental or logging does not invalidate the outputs.
+    public static String hashConfig(Properties properties) {
+        StringBuilder config = new StringBuilder();
+        for (String key : new TreeSet<>(properties.stringPropertyNames())) {
+            if (!RUN_KEYS.contains(key) && RUN_KEY_PREFIXES.stream().noneMatch(key::startsWith)) {
+                config.append(key).append('=').append(properties.getProperty(key)).append('\n');
+            }
+        }
+        return sha256(config.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String sha256(byte[] data) {
+        return HexFormat.of().formatHex(newDigest().digest(data));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) { // every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record Entry(String sourceHash, List<String> outputs) {
+    }
+}
@@ -0,0 +1,185 @@
+package com.berkebakar.AstCreator;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+// A labeled corpus in one file, given with --input-manifest instead of one .java file per method: a .jsonl file of JSON
+// objects or a .csv file with a header line, one record per method. A record holds the source in
+// input.jsonlSourceField, its id in input.jsonlNameField, which names the outputs, and any number of labels: the other
+// columns of the CSV header, or the other fields of the first JSON object. Labels are written next to each output in
+// the index files, see AstCreator.openOutput. Records are read one at a time, so the manifest can be of any size.
+public class InputManifest implements Closeable {
+    private final Path manifestPath;
+    private final AstConfig config;
+    private final String manifestName; // without extension, names the records without an id
+    private final BufferedReader reader;
+    private final boolean csv;
+    private final List<String> labelColumns = new ArrayList<>();
+    private final List<Integer> labelIndexes = new ArrayList<>(); // of the label columns in a CSV record
+    private int sourceIndex;
+    private int idIndex; // -1 without an id column
+    private JsonObject firstJsonRecord; // read ahead for the label columns of a .jsonl manifest
+    private long recordNumber = 0; // line of a .jsonl manifest, record after the header of a .csv one
+
+    private InputManifest(Path manifestPath, AstConfig config) throws IOException {
+        this.manifestPath = manifestPath;
+        this.config = config;
+        String fileName = manifestPath.getFileName().toString();
+        this.manifestName = fileName.substring(0, fileName.lastIndexOf('.'));
+        this.csv = fileName.endsWith(".csv");
+        this.reader = Files.newBufferedReader(manifestPath, StandardCharsets.UTF_8);
+        try {
+            if (csv) {
+                readCsvHeader();
+            } else {
+                readFirstJsonRecord();
+            }
+        } catch (IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    public static boolean isManifest(Path path) {
+        String fileName = path.getFileName().toString();
+        return fileName.endsWith(".jsonl") || fileName.endsWith(".csv");
+    }
+
+    public static InputManifest open(Path manifestPath, AstConfig config) throws IOException {
+        return new InputManifest(manifestPath, config);
+    }
+
+    // names of the label fields in the order they are written to the index files
+    public List<String> getLabelColumns() {
+        return labelColumns;
+    }
+
+    // sources in manifest order, created lazily like the ones of DatasetReader. Closing the stream closes the manifest.
+    public Stream<AstCreator.Source> sources() {
+        return DatasetReader.stream(new Records());
+    }
+
+    private void readCsvHeader() throws IOException {
+        List<String> header = Csv.readRecord(reader);
+        if (header == null) {
+            throw new IOException(manifestPath + " is empty, it needs a header line");
+        }
+        sourceIndex = header.indexOf(config.getJsonlSourceField());
+        if (sourceIndex < 0) {
+            throw new IOException(manifestPath + " has no " + config.getJsonlSourceField() + " column");
+        }
+        idIndex = header.indexOf(config.getJsonlNameField());
+        for (int i = 0; i < header.size(); i++) {
+            if (i != sourceIndex && i != idIndex) {
+                labelColumns.add(header.get(i));
+                labelIndexes.add(i);
+            }
+        }
+    }
+
+    private void readFirstJsonRecord() throws IOException {
+        firstJsonRecord = readJsonRecord();
+        if (firstJsonRecord == null) {
+            return;
+        }
+        for (String field : firstJsonRecord.keySet()) {
+            if (!field.equals(config.getJsonlSourceField()) && !field.equals(config.getJsonlNameField())) {
+                labelColumns.add(field);
+            }
+        }
+    }
+
+    // the next JSON object, lines that are not one are skipped, null at the end of the manifest
+    private JsonObject readJsonRecord() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            recordNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                return JsonParser.parseString(line).getAsJsonObject();
+            } catch (JsonParseException | IllegalStateException e) {
+                System.err.println("Line " + recordNumber + " of " + manifestPath + " is not a JSON object, skipping it.");
+            }
+        }
+        return null;
+    }
+
+    private AstCreator.Source readCsvSource() throws IOException {
+        List<String> record = Csv.readRecord(reader);
+        if (record == null) {
+            throw new NoSuchElementException();
+        }
+        recordNumber++;
+        if (record.size() == 1 && record.get(0).isEmpty()) { // empty line
+            return null;
+        }
+        if (sourceIndex >= record.size()) {
+            System.err.println("Record " + recordNumber + " of " + manifestPath + " has no " + config.getJsonlSourceField() + ", skipping it.");
+            return null;
+        }
+        List<String> labels = new ArrayList<>(labelIndexes.size());
+        for (int index : labelIndexes) {
+            labels.add(index < record.size() ? record.get(index) : "");
+        }
+        return createSource(record.get(sourceIndex), idIndex >= 0 && idIndex < record.size() ? record.get(idIndex) : null, labels);
+    }
+
+    private AstCreator.Source readJsonSource() throws IOException {
+        JsonObject record = firstJsonRecord != null ? firstJsonRecord : readJsonRecord();
+        firstJsonRecord = null;
+        if (record == null) {
+            throw new NoSuchElementException();
+        }
+        JsonElement sourceCode = record.get(config.getJsonlSourceField());
+        if (sourceCode == null || !sourceCode.isJsonPrimitive()) {
+            System.err.println("Line " + recordNumber + " of " + manifestPath + " has no " + config.getJsonlSourceField() + ", skipping it.");
+            return null;
+        }
+        JsonElement id = record.get(config.getJsonlNameField());
+        List<String> labels = new ArrayList<>(labelColumns.size());
+        for (String column : labelColumns) {
+            JsonElement label = record.get(column);
+            // a missing label is empty, arrays and objects are kept as JSON
+            labels.add(label == null || label.isJsonNull() ? "" : label.isJsonPrimitive() ? label.getAsString() : label.toString());
+        }
+        return createSource(sourceCode.getAsString(), id != null && id.isJsonPrimitive() ? id.getAsString() : null, labels);
+    }
+
+    // named like the entries of a .jsonl dataset, e.g. bugs.csv/42.java for id 42
+    private AstCreator.Source createSource(String sourceCode, String id, List<String> labels) {
+        String name = id == null || id.isEmpty() ? manifestName + "-" + recordNumber : id.replace('/', '_').replace('\\', '_');
+        return AstCreator.readSource(manifestPath.resolve(name + ".java"), StandardCharsets.UTF_8.encode(sourceCode), labels, config);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private final class Records extends DatasetReader.SourceIterator {
+        @Override
+        protected AstCreator.Source readNext() throws IOException {
+            return csv ? readCsvSource() : readJsonSource();
+        }
+
+        @Override
+        public void close() throws IOException {
+            InputManifest.this.close();
+        }
+    }
+}
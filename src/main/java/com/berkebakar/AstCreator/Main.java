@@ -15,19 +15,35 @@ public class Main {
     public static void main(String[] args) {
         CommandLineParser cliParser = new DefaultParser();
         Options cliOptions = createCliOptions();
-        // Read or create properties file
-        System.out.println("Reading config.properties...");
-        Properties properties = getOrCreateProperties();
-
-        if (properties == null){
-            System.err.println("config.properties file cannot be created, move the executable to a different location, exiting...");
-            System.exit(7);
-        }
 
         try {
             CommandLine commandLine = cliParser.parse(cliOptions, args);
             // Validate the options first
             validateOptions(commandLine);
+            if (commandLine.hasOption("s") && commandLine.getOptionValue("s").equals("-")) {
+                System.setOut(System.err); // stdout is only used by the daemon protocol
+            }
+
+            // Read or create properties file
+            System.out.println("Reading config.properties...");
+            Properties properties = getOrCreateProperties();
+
+            if (properties == null){
+                System.err.println("config.properties file cannot be created, move the executable to a different location, exiting...");
+                System.exit(7);
+            }
+            AstConfig config = null;
+            try {
+                config = AstConfig.fromProperties(properties);
+            } catch (IllegalArgumentException e) {
+                System.err.println("config.properties has an invalid value: " + e.getMessage() + ", exiting...");
+                System.exit(7);
+            }
+
+            if (commandLine.hasOption("s")) {
+                serve(commandLine, config);
+                return;
+            }
             // initialize read/write paths based on command line parameters
             Path inputPath = null;
             Path outputPath;
@@ -36,6 +52,8 @@ public class Main {
                 inputPath = Paths.get(commandLine.getOptionValue("f"));
             } else if (commandLine.hasOption("d")) {
                 inputPath = Paths.get(commandLine.getOptionValue("d"));
+            } else if (commandLine.hasOption("m")) {
+                inputPath = Paths.get(commandLine.getOptionValue("m"));
             }
 
             if (commandLine.hasOption("o")) {
@@ -44,42 +62,258 @@ public class Main {
                 outputPath = getParentPath(inputPath);
             }
 
-            if (inputPath != null){
-                if (Files.isDirectory(inputPath)){ // walk through the directory
+            if (commandLine.hasOption("c")) {
+                if (commandLine.hasOption("m") || DatasetReader.isDataset(inputPath)) { // the daemon only reads Java files
+                    System.out.println("The daemon only accepts Java files, creating ASTs in this process.");
+                } else if (createAstsWithDaemon(Paths.get(commandLine.getOptionValue("c")), inputPath, outputPath, config)) {
+                    return;
+                }
+            }
+
+            InputManifest inputManifest = null;
+            if (commandLine.hasOption("m")) {
+                try {
+                    inputManifest = InputManifest.open(inputPath, config);
+                } catch (IOException e) {
+                    System.err.println("Input manifest " + inputPath + " cannot be read: " + e.getMessage());
+                    System.exit(6);
+                }
+            }
+
+            AstCreator.useRenderEngine(config);
+            if (config.getOutputFormat().isTokens()) {
+                prepareVocabulary(commandLine, inputPath, outputPath, properties, config);
+            }
+            try {
+                AstCreator.openOutput(outputPath, config, inputManifest == null ? null : inputManifest.getLabelColumns());
+            } catch (IOException e) {
+                System.err.println("Output cannot be created in " + outputPath + ": " + e.getMessage());
+                System.exit(8);
+            }
+
+            createAsts(commandLine, inputPath, outputPath, config, inputManifest, false);
+
+            try {
+                AstCreator.closeOutput();
+            } catch (IOException e) {
+                System.err.println("Output cannot be completed in " + outputPath + ": " + e.getMessage());
+                System.exit(8);
+            }
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            System.exit(4);
+        }
+    }
+
+    // creates the ASTs of the input options, or only counts them into the vocabulary with vocabularyPass
+    private static void createAsts(CommandLine commandLine, Path inputPath, Path outputPath, AstConfig config,
+                                   InputManifest inputManifest, boolean vocabularyPass) {
+        if (inputManifest != null) {
+            createAstsOfManifest(inputManifest, outputPath, config, getThreadCount(commandLine));
+        }
+        else if (inputPath != null){
+            if (Files.isDirectory(inputPath)){ // walk through the directory
+                int threadCount = getThreadCount(commandLine);
+                try (Stream<Path> paths = Files.walk(inputPath)) {
+                    Stream<Path> javaFiles = paths.filter(Files::isRegularFile)
+                            .filter(path -> path.toString().endsWith(".java"));
+                    if (config.getParseUnit() == AstConfig.ParseUnit.COMPILATION_UNIT && config.getParseBatchSize() > 0) {
+                        if (config.getPipelineIoThreads() > 0) {
+                            System.err.println("pipeline.ioThreads is not used with parse.batchSize above 0, the batches read and write their files themselves.");
+                        }
+                        new BatchAstCreator(threadCount, config.getParseBatchSize()).createAsts(javaFiles, outputPath, config);
+                    } else if (config.getPipelineIoThreads() > 0) { // the render stage uses every processor by default
+                        int workerCount = commandLine.hasOption("t") ? threadCount : Runtime.getRuntime().availableProcessors();
+                        new PipelineAstCreator(workerCount, config.getPipelineIoThreads()).createAsts(javaFiles, outputPath, config);
+                    } else if (threadCount > 1) {
+                        new ParallelAstCreator(threadCount).createAsts(javaFiles, outputPath, config);
+                    } else {
+                        javaFiles.forEach(path -> {
+                            if (config.isPerFileLogging()) {
+                                System.out.println("Creating AST for " + path.getFileName().toString());
+                            }
+                            try { // the file is generated once all of its outputs are written
+                                AstCreator.createAst(path, outputPath, config, created -> {
+                                    if (created && config.isPerFileLogging()) {
+                                        System.out.println("Generated AST for " + path.getFileName().toString());
+                                    }
+                                });
+                            } catch (RuntimeException e) { // as reported by ParallelAstCreator, the other files go on
+                                System.err.println("An error occurred while creating AST for " + path.getFileName() + " Message: " + e);
+                            }
+                        });
+                    }
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                    System.exit(6);
+                }
+                if (config.isDatasetsIncluded()) {
                     try (Stream<Path> paths = Files.walk(inputPath)) {
                         paths.filter(Files::isRegularFile)
-                                .filter(path -> path.toString().endsWith(".java"))
-                                .forEach(path -> {
-                                    System.out.println("Creating AST for " + path.getFileName().toString());
-                                    AstCreator.createAst(path, outputPath, properties);
-                                    System.out.println("Generated AST for " + path.getFileName().toString());
-                                }); // Replace with your own logic
+                                .filter(DatasetReader::isDataset)
+                                .forEach(dataset -> createAstsOfDataset(dataset, outputPath, config, threadCount));
                     } catch (IOException e) {
                         System.err.println(e.getMessage());
                         System.exit(6);
                     }
                 }
-                else { // single file
+            }
+            else if (DatasetReader.isDataset(inputPath)) {
+                createAstsOfDataset(inputPath, outputPath, config, getThreadCount(commandLine));
+            }
+            else { // single file
+                if (!vocabularyPass) {
                     System.out.println("Creating AST for " + inputPath.getFileName().toString());
-                    AstCreator.createAst(inputPath, outputPath, properties);
-                    System.out.println("Generated AST for " + inputPath.getFileName().toString());
                 }
+                AstCreator.createAst(inputPath, outputPath, config, created -> {
+                    if (created && !vocabularyPass) {
+                        System.out.println("Generated AST for " + inputPath.getFileName().toString());
+                    }
+                });
             }
-            else { // should not be possible we validate inputs before
-                System.err.println("Input path is null, exiting...");
-                System.exit(5);
+        }
+        else { // should not be possible we validate inputs before
+            System.err.println("Input path is null, exiting...");
+            System.exit(5);
+        }
+    }
+
+    // output.format=sbt and paths: the vocabulary of tokens.vocabulary, or of the earlier runs into the output directory
+    // with output.incremental (their outputs use its ids), or one built by a first pass over the inputs
+    private static void prepareVocabulary(CommandLine commandLine, Path inputPath, Path outputPath, Properties properties,
+                                          AstConfig config) {
+        Path vocabularyPath = config.getVocabularyPath();
+        if (vocabularyPath == null && config.isIncremental() && Vocabulary.exists(outputPath)) {
+            vocabularyPath = outputPath;
+        }
+        Vocabulary vocabulary;
+        if (vocabularyPath != null) {
+            try {
+                vocabulary = Vocabulary.read(vocabularyPath);
+            } catch (IOException e) {
+                System.err.println("Vocabulary cannot be read from " + vocabularyPath + ": " + e.getMessage());
+                System.exit(6);
+                return;
             }
-        } catch (ParseException e) {
+            AstCreator.useVocabulary(vocabulary);
+            System.out.println("Using the vocabulary of " + vocabularyPath + ": " + vocabulary.getSummary());
+        } else {
+            System.out.println("Building the vocabulary...");
+            Properties vocabularyProperties = new Properties();
+            vocabularyProperties.putAll(properties);
+            vocabularyProperties.setProperty("log.perFile", "false");
+            AstConfig vocabularyConfig = AstConfig.fromProperties(vocabularyProperties);
+            InputManifest inputManifest = null;
+            if (commandLine.hasOption("m")) { // the records are read again to create the ASTs
+                try {
+                    inputManifest = InputManifest.open(inputPath, vocabularyConfig);
+                } catch (IOException e) {
+                    System.err.println("Input manifest " + inputPath + " cannot be read: " + e.getMessage());
+                    System.exit(6);
+                }
+            }
+            AstCreator.startVocabulary();
+            createAsts(commandLine, inputPath, outputPath, vocabularyConfig, inputManifest, true);
+            vocabulary = AstCreator.finishVocabulary(config);
+            System.out.println("Vocabulary: " + vocabulary.getSummary());
+        }
+        try {
+            vocabulary.write(outputPath);
+        } catch (IOException e) {
+            System.err.println("Vocabulary cannot be written to " + outputPath + ": " + e.getMessage());
+            System.exit(8);
+        }
+    }
+
+    // -s/--serve: runs AstDaemon until stdin is closed or the process is stopped
+    private static void serve(CommandLine commandLine, AstConfig config) {
+        AstCreator.useRenderEngine(config);
+        if (config.getOutputFormat().isTokens()) { // the daemon sees one file at a time, so it cannot build a vocabulary
+            if (config.getVocabularyPath() == null) {
+                System.err.println("The daemon needs tokens.vocabulary for output.format=sbt and paths, e.g. the output directory of a run with -d.");
+                System.exit(2);
+            }
+            try {
+                AstCreator.useVocabulary(Vocabulary.read(config.getVocabularyPath()));
+            } catch (IOException e) {
+                System.err.println("Vocabulary cannot be read from " + config.getVocabularyPath() + ": " + e.getMessage());
+                System.exit(6);
+            }
+        }
+        int threadCount = commandLine.hasOption("t") || commandLine.hasOption("p")
+                ? getThreadCount(commandLine) : Runtime.getRuntime().availableProcessors();
+        AstDaemon daemon = new AstDaemon(config, threadCount);
+        try {
+            if (commandLine.getOptionValue("s").equals("-")) {
+                daemon.serveStandardStreams();
+            } else {
+                daemon.serveSocket(Paths.get(commandLine.getOptionValue("s")));
+            }
+        } catch (IOException e) {
+            System.err.println("Daemon stopped: " + e.getMessage());
+            System.exit(9);
+        }
+    }
+
+    // the sources of a .tar, .zip or .jsonl dataset are read by this thread and created by the worker threads
+    private static void createAstsOfDataset(Path dataset, Path outputPath, AstConfig config, int threadCount) {
+        try (Stream<AstCreator.Source> sources = DatasetReader.read(dataset, config)) {
+            new ParallelAstCreator(threadCount).createAstsOfSources(sources, outputPath, config);
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Dataset " + dataset + " cannot be read: " + e.getMessage());
+        }
+    }
+
+    // the records of --input-manifest are read by this thread and created by the worker threads, like a dataset
+    private static void createAstsOfManifest(InputManifest inputManifest, Path outputPath, AstConfig config, int threadCount) {
+        try (Stream<AstCreator.Source> sources = inputManifest.sources()) {
+            new ParallelAstCreator(threadCount).createAstsOfSources(sources, outputPath, config);
+        } catch (UncheckedIOException e) {
+            System.err.println("Input manifest cannot be read: " + e.getMessage());
+        }
+    }
+
+    // -c/--connect: sends the Java files to a running daemon, returns false if there is none to create them in-process
+    private static boolean createAstsWithDaemon(Path socketPath, Path inputPath, Path outputPath, AstConfig config) {
+        try (DaemonClient client = DaemonClient.connect(socketPath)) {
+            if (client == null) {
+                System.out.println("No daemon is running on " + socketPath + ", creating ASTs in this process.");
+                return false;
+            }
+            try (Stream<Path> paths = Files.walk(inputPath)) {
+                paths.filter(Files::isRegularFile)
+                        .filter(path -> path.toString().endsWith(".java"))
+                        .forEach(path -> {
+                            if (config.isPerFileLogging()) {
+                                System.out.println("Creating AST for " + path.getFileName().toString());
+                            }
+                            try {
+                                client.createAst(path, outputPath);
+                                if (config.isPerFileLogging()) {
+                                    System.out.println("Generated AST for " + path.getFileName().toString());
+                                }
+                            } catch (IOException e) {
+                                System.err.println("An error occurred while creating AST for " + path.getFileName().toString() + " Message: " + e.getMessage());
+                            }
+                        });
+            }
+        } catch (IOException e) {
             System.err.println(e.getMessage());
-            System.exit(4);
+            System.exit(6);
         }
+        return true;
     }
 
     private static Options createCliOptions() {
         Options paramOptions = new Options();
-        paramOptions.addOption(new Option("f", "file", true, "Java file that contains the function to be converted into AST."));
+        paramOptions.addOption(new Option("f", "file", true, "Java file that contains the function to be converted into AST, or a .tar, .zip or .jsonl dataset of them."));
         paramOptions.addOption(new Option("d", "directory", true, "Directory that contains .java files to be converted into AST."));
+        paramOptions.addOption(new Option("m", "input-manifest", true, "A .jsonl or .csv file with the source, id and labels of one method per record, labels are added to the output index."));
         paramOptions.addOption(new Option("o", "outputDir", true, "Output directory to save generated ASTs. If option is not given, then Java files directory will be used."));
+        paramOptions.addOption(new Option("t", "threads", true, "Number of worker threads used with -d/--directory or -m/--input-manifest option. Default is 1."));
+        paramOptions.addOption(new Option("p", "parallel", false, "Use one worker thread per available processor with -d/--directory option."));
+        paramOptions.addOption(new Option("s", "serve", true, "Run as a daemon answering requests on the given Unix socket, or on stdin/stdout if it is -. -t/--threads sets the worker threads."));
+        paramOptions.addOption(new Option("c", "connect", true, "Send the files to a daemon running on the given Unix socket, they are created in-process if no daemon is running."));
         paramOptions.addOption(new Option("help", "help", false, "Prints this help text."));
         return paramOptions;
     }
@@ -90,8 +324,13 @@ public class Main {
             System.exit(0);
         }
 
-        if (!line.hasOption("f") && !line.hasOption("d")) {
-            System.err.println("Need to provide at least one of -f/--file or -d/--directory options. Giving both will result in error.");
+        if (line.hasOption("s")) {
+            if (line.hasOption("f") || line.hasOption("d") || line.hasOption("m") || line.hasOption("c")) {
+                System.err.println("-s/--serve cannot be combined with -f/--file, -d/--directory, -m/--input-manifest or -c/--connect.");
+                System.exit(2);
+            }
+        } else if (!line.hasOption("f") && !line.hasOption("d") && !line.hasOption("m")) {
+            System.err.println("Need to provide one of -f/--file, -d/--directory or -m/--input-manifest options. Giving more will result in error.");
             System.exit(1);
         }
 
@@ -100,12 +339,18 @@ public class Main {
             System.exit(2);
         }
 
+        if (line.hasOption("m") && (line.hasOption("f") || line.hasOption("d"))) {
+            System.err.println("Cannot provide -m/--input-manifest together with -f/--file or -d/--directory options.");
+            System.exit(2);
+        }
+
         // Validate the values
         if (line.hasOption("f")) {
             try {
                 Path path = Paths.get(line.getOptionValue("f"));
-                if (!(Files.exists(path) && Files.isRegularFile(path) && path.getFileName().toString().endsWith(".java"))) {
-                    System.err.println("A valid Java file path must be given to -f/--file option argument.");
+                if (!(Files.exists(path) && Files.isRegularFile(path)
+                        && (path.getFileName().toString().endsWith(".java") || DatasetReader.isDataset(path)))) {
+                    System.err.println("A valid Java file or .tar, .zip or .jsonl dataset path must be given to -f/--file option argument.");
                     System.exit(3);
                 }
             } catch (InvalidPathException e) {
@@ -123,6 +368,29 @@ public class Main {
                 System.err.println("Given path to -d/--directory option is invalid.");
                 System.exit(3);
             }
+        } else if (line.hasOption("m")) {
+            try {
+                Path path = Paths.get(line.getOptionValue("m"));
+                if (!(Files.exists(path) && Files.isRegularFile(path) && InputManifest.isManifest(path))) {
+                    System.err.println("A valid .jsonl or .csv file path must be given to -m/--input-manifest option argument.");
+                    System.exit(3);
+                }
+            } catch (InvalidPathException e) {
+                System.err.println("Given path to -m/--input-manifest option is invalid.");
+                System.exit(3);
+            }
+        }
+
+        if (line.hasOption("t")) {
+            try {
+                if (Integer.parseInt(line.getOptionValue("t")) < 1) {
+                    System.err.println("-t/--threads option argument must be a positive number.");
+                    System.exit(3);
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("-t/--threads option argument must be a positive number.");
+                System.exit(3);
+            }
         }
 
         if (line.hasOption("o")) {
@@ -139,6 +407,15 @@ public class Main {
         }
     }
 
+    private static int getThreadCount(CommandLine line) {
+        if (line.hasOption("t")) {
+            return Integer.parseInt(line.getOptionValue("t"));
+        } else if (line.hasOption("p")) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return 1;
+    }
+
     private static Path getParentPath(Path path) {
         if (Files.isRegularFile(path)) {
             return path.getParent();
@@ -169,6 +446,36 @@ public class Main {
             props.setProperty("output.includeExpressions", "true");
             props.setProperty("output.nodeWidth", "2");
             props.setProperty("output.nodeHeight", "2");
+            props.setProperty("output.format", "png");
+            props.setProperty("output.layout", "files");
+            props.setProperty("output.shardSizeMB", "1024");
+            props.setProperty("output.incremental", "false");
+            props.setProperty("parse.mode", "syntax");
+            props.setProperty("parse.unit", "snippet");
+            props.setProperty("parse.includeConstructors", "true");
+            props.setProperty("parse.includeLambdas", "false");
+            props.setProperty("parse.batchSize", "0");
+            props.setProperty("render.engine", "j2v8");
+            props.setProperty("render.dotCommand", "dot");
+            props.setProperty("render.timeoutMillis", "60000");
+            props.setProperty("render.cacheSizeMB", "64");
+            props.setProperty("render.cacheHardLinks", "false");
+            props.setProperty("metrics.enabled", "false");
+            props.setProperty("metrics.intervalSeconds", "10");
+            props.setProperty("metrics.jfr", "false");
+            props.setProperty("log.perFile", "true");
+            props.setProperty("pipeline.ioThreads", "0");
+            props.setProperty("input.datasets", "false");
+            props.setProperty("input.jsonlSourceField", "code");
+            props.setProperty("input.jsonlNameField", "name");
+            props.setProperty("budget.maxSourceBytes", "0");
+            props.setProperty("budget.maxNodes", "0");
+            props.setProperty("budget.onExceeded", "degrade");
+            props.setProperty("tokens.vocabularySize", "50000");
+            props.setProperty("tokens.pathVocabularySize", "50000");
+            props.setProperty("tokens.maxPathLength", "8");
+            props.setProperty("tokens.maxPathWidth", "2");
+            props.setProperty("tokens.vocabulary", "");
             // Default shape values
             props.setProperty("TypeDeclaration.shape", "true");
             props.setProperty("MethodDeclaration.shape", "box");
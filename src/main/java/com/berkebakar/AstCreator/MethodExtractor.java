@@ -0,0 +1,115 @@
+package com.berkebakar.AstCreator;
+
+import org.eclipse.jdt.core.dom.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+// Walks a whole compilation unit and hands each method to the consumer right away, which builds its AstGraph, so only
+// the graph of the current method is kept in memory. Constructors and lambdas are included if configured.
+// Each graph is named like com.example.Outer.Inner.method(int,String[])_L10-25 with the line range in the source.
+// Lambdas are numbered within their enclosing method, field or initializer, like com.example.Outer.method(int).lambda2_L12-12.
+// Names are output file names, so a name that was already emitted for this compilation unit gets an ordinal, like
+// com.example.Outer.method()_L3-3_2 for the second method of that name on line 3, instead of overwriting the first.
+public class MethodExtractor extends ASTVisitor {
+    private final CompilationUnit compilationUnit;
+    private final AstConfig config;
+    private final BiConsumer<String, ASTNode> consumer;
+    private final String packagePrefix;
+    private final Map<String, Integer> nameCounts = new HashMap<>();
+    private final Map<String, Integer> lambdaCounts = new HashMap<>(); // by enclosing member name
+
+    public MethodExtractor(CompilationUnit compilationUnit, AstConfig config, BiConsumer<String, ASTNode> consumer) {
+        super(false);
+        this.compilationUnit = compilationUnit;
+        this.config = config;
+        this.consumer = consumer;
+        this.packagePrefix = compilationUnit.getPackage() == null ? "" : compilationUnit.getPackage().getName().getFullyQualifiedName() + ".";
+    }
+
+    @Override
+    public boolean visit(MethodDeclaration node) {
+        // methods without a body (abstract, interface or native) have nothing to show
+        if (node.getBody() != null && (!node.isConstructor() || config.isConstructorsIncluded())) {
+            emit(node, getTypeName(node) + "." + node.getName().getIdentifier() + getParameterTypes(node));
+        }
+        return true; // methods of local and anonymous classes are emitted on their own as well
+    }
+
+    @Override
+    public boolean visit(LambdaExpression node) {
+        if (config.isLambdasIncluded()) {
+            String memberName = getTypeName(node) + getEnclosingMemberName(node);
+            int ordinal = lambdaCounts.merge(memberName, 1, Integer::sum);
+            emit(node, memberName + ".lambda" + ordinal);
+        }
+        return true;
+    }
+
+    private void emit(ASTNode node, String name) {
+        int startLine = compilationUnit.getLineNumber(node.getStartPosition());
+        int endLine = compilationUnit.getLineNumber(node.getStartPosition() + node.getLength() - 1);
+        String fullName = name + "_L" + startLine + "-" + endLine;
+        int ordinal = nameCounts.merge(fullName, 1, Integer::sum);
+        consumer.accept(ordinal == 1 ? fullName : fullName + "_" + ordinal, node);
+    }
+
+    // "." and the method, field or initializer a lambda is in, empty if it is directly in a type
+    private static String getEnclosingMemberName(LambdaExpression node) {
+        for (ASTNode parent = node.getParent(); parent != null; parent = parent.getParent()) {
+            if (parent instanceof MethodDeclaration method) {
+                return "." + method.getName().getIdentifier() + getParameterTypes(method);
+            } else if (parent instanceof VariableDeclarationFragment fragment && fragment.getParent() instanceof FieldDeclaration) {
+                return "." + fragment.getName().getIdentifier();
+            } else if (parent instanceof EnumConstantDeclaration constant) {
+                return "." + constant.getName().getIdentifier();
+            } else if (parent instanceof Initializer initializer) {
+                return Modifier.isStatic(initializer.getModifiers()) ? ".staticInitializer" : ".initializer";
+            } else if (parent instanceof AbstractTypeDeclaration || parent instanceof AnonymousClassDeclaration) {
+                return "";
+            }
+        }
+        return "";
+    }
+
+    // package and names of the enclosing types, anonymous classes are named "anonymous"
+    private String getTypeName(ASTNode node) {
+        StringBuilder typeName = new StringBuilder();
+        for (ASTNode parent = node.getParent(); parent != null; parent = parent.getParent()) {
+            if (parent instanceof AbstractTypeDeclaration typeDeclaration) {
+                typeName.insert(0, typeDeclaration.getName().getIdentifier() + (typeName.length() == 0 ? "" : "."));
+            } else if (parent instanceof AnonymousClassDeclaration) {
+                typeName.insert(0, "anonymous" + (typeName.length() == 0 ? "" : "."));
+            }
+        }
+        return packagePrefix + typeName;
+    }
+
+    // parameter types without type arguments, so names stay short and usable as file names
+    private static String getParameterTypes(MethodDeclaration node) {
+        StringBuilder parameterTypes = new StringBuilder("(");
+        List<?> parameters = node.parameters();
+        for (int i = 0; i < parameters.size(); i++) {
+            SingleVariableDeclaration parameter = (SingleVariableDeclaration) parameters.get(i);
+            parameterTypes.append(i == 0 ? "" : ",").append(getErasedName(parameter.getType()));
+            parameterTypes.append("[]".repeat(parameter.extraDimensions().size()));
+            parameterTypes.append(parameter.isVarargs() ? "..." : "");
+        }
+        return parameterTypes.append(")").toString();
+    }
+
+    private static String getErasedName(Type type) {
+        if (type instanceof ParameterizedType parameterizedType) {
+            return getErasedName(parameterizedType.getType());
+        } else if (type instanceof ArrayType arrayType) {
+            return getErasedName(arrayType.getElementType()) + "[]".repeat(arrayType.getDimensions());
+        } else if (type instanceof SimpleType simpleType) {
+            return simpleType.getName().getFullyQualifiedName();
+        } else if (type instanceof QualifiedType qualifiedType) {
+            return qualifiedType.getName().getIdentifier();
+        }
+        return type.toString(); // primitive, union, intersection and var types
+    }
+}
@@ -0,0 +1,80 @@
+package com.berkebakar.AstCreator;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+// Writes rendered ASTs as NumPy .npy arrays of uint8 RGB pixels (height x width x 3), so they can be loaded with
+// numpy.load without decoding PNG files. See https://numpy.org/doc/stable/reference/generated/numpy.lib.format.html
+// TokenShardWriter writes the same header for its int32 arrays.
+public final class NpyFormat {
+    // magic, version 1.0, header length and the header dict padded with spaces, large enough for any shape we write
+    public static final int HEADER_LENGTH = 128;
+    private static final byte[] MAGIC = {(byte) 0x93, 'N', 'U', 'M', 'P', 'Y', 1, 0};
+
+    private NpyFormat() {
+    }
+
+    // complete .npy file of one image
+    public static byte[] toBytes(BufferedImage image) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + pixelBytes(image.getHeight(), image.getWidth()));
+        buffer.put(header(image.getHeight(), image.getWidth()));
+        putPixels(image, buffer);
+        return buffer.array();
+    }
+
+    public static int pixelBytes(int height, int width) {
+        return height * width * 3;
+    }
+
+    // header of an array with the given leading dimensions followed by 3 color channels
+    public static ByteBuffer header(long... shape) {
+        long[] imageShape = Arrays.copyOf(shape, shape.length + 1);
+        imageShape[shape.length] = 3;
+        return header("|u1", imageShape);
+    }
+
+    // header of an array of any numpy dtype (descr) and shape
+    public static ByteBuffer header(String descr, long... shape) {
+        String dimensions = Arrays.stream(shape).mapToObj(Long::toString).collect(Collectors.joining(", "));
+        if (shape.length == 1) { // a Python tuple with one element
+            dimensions += ",";
+        }
+        StringBuilder dict = new StringBuilder("{'descr': '" + descr + "', 'fortran_order': False, 'shape': (" + dimensions + "), }");
+        int dictLength = HEADER_LENGTH - MAGIC.length - 2;
+        if (dict.length() >= dictLength) {
+            throw new IllegalArgumentException("Array shape " + dimensions + " does not fit into the .npy header");
+        }
+        while (dict.length() < dictLength - 1) {
+            dict.append(' ');
+        }
+        dict.append('\n');
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.put(MAGIC);
+        header.put((byte) (dictLength & 0xFF)).put((byte) (dictLength >> 8)); // little endian unsigned short
+        header.put(dict.toString().getBytes(StandardCharsets.US_ASCII));
+        return header.flip();
+    }
+
+    // row-major RGB bytes, transparent pixels are blended onto white like an image viewer shows the PNG
+    public static void putPixels(BufferedImage image, ByteBuffer buffer) {
+        int width = image.getWidth();
+        int[] row = new int[width];
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int argb : row) {
+                int alpha = argb >>> 24;
+                buffer.put(blendOnWhite((argb >> 16) & 0xFF, alpha));
+                buffer.put(blendOnWhite((argb >> 8) & 0xFF, alpha));
+                buffer.put(blendOnWhite(argb & 0xFF, alpha));
+            }
+        }
+    }
+
+    private static byte blendOnWhite(int value, int alpha) {
+        return (byte) ((value * alpha + 255 * (255 - alpha) + 127) / 255);
+    }
+}
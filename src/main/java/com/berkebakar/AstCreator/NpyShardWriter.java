@@ -0,0 +1,77 @@
+package com.berkebakar.AstCreator;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// Appends rendered ASTs as rows of one asts.npy array (rows x height x width x 3, uint8), so no file is created per AST.
+// asts.index.csv maps each row to the AST name, its source file and, with --input-manifest, the labels of its record.
+// Rows are appended in the order files finish, which is not the input order with multiple threads.
+// Each row is written at its position, so the file grows by exactly one row. A memory mapping is made ahead of the
+// rows and would have to be cut back on close, which fails on Windows while the mapping is not yet unmapped.
+// The row count in the header is only written by close(), before that numpy cannot load the file.
+public class NpyShardWriter implements Closeable {
+    public static final String ARRAY_FILE_NAME = "asts.npy";
+    public static final String INDEX_FILE_NAME = "asts.index.csv";
+
+    private final FileChannel channel;
+    private final BufferedWriter index;
+    private final int height;
+    private final int width;
+    private final int rowBytes;
+    private long rowCount = 0;
+
+    public NpyShardWriter(Path outputPath, int height, int width, List<String> labelColumns) throws IOException {
+        this.height = height;
+        this.width = width;
+        this.rowBytes = NpyFormat.pixelBytes(height, width);
+        this.channel = FileChannel.open(outputPath.resolve(ARRAY_FILE_NAME),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.index = Files.newBufferedWriter(outputPath.resolve(INDEX_FILE_NAME), StandardCharsets.UTF_8);
+        index.write("row,name,source" + Csv.trailingFields(labelColumns));
+        index.newLine();
+    }
+
+    // pixels of one row, converted without holding the lock of append
+    public byte[] toRow(Path inputPath, BufferedImage image) throws IOException {
+        if (image.getHeight() != height || image.getWidth() != width) {
+            throw new IOException("Rendered image of " + inputPath.getFileName() + " is " + image.getWidth() + "x" + image.getHeight()
+                    + ", all rows of " + ARRAY_FILE_NAME + " must be " + width + "x" + height);
+        }
+        ByteBuffer row = ByteBuffer.allocate(rowBytes);
+        NpyFormat.putPixels(image, row);
+        return row.array();
+    }
+
+    // row is the result of toRow, labels are in the order of the label columns
+    public synchronized void append(Path inputPath, String name, byte[] row, List<String> labels) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(row);
+        long position = NpyFormat.HEADER_LENGTH + rowCount * rowBytes;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+
+        index.write(rowCount + "," + Csv.field(name) + "," + Csv.field(inputPath.toString()) + Csv.trailingFields(labels));
+        index.newLine();
+        rowCount++;
+    }
+
+    // writes the final shape into the header
+    @Override
+    public synchronized void close() throws IOException {
+        try (channel; index) {
+            ByteBuffer header = NpyFormat.header(rowCount, height, width);
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.berkebakar.AstCreator;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+public class ParallelAstCreator {
+    private final int threadCount;
+    private final int maxPendingFiles;
+
+    public ParallelAstCreator(int threadCount) {
+        this.threadCount = threadCount;
+        // at most this many files are queued or being processed at the same time
+        this.maxPendingFiles = threadCount * 3;
+    }
+
+    public void createAsts(Stream<Path> inputPaths, Path outputPath, AstConfig config) {
+        createAsts(inputPaths, path -> path,
+                (path, onFinished) -> AstCreator.createAst(path, outputPath, config, onFinished), config);
+    }
+
+    // sources that are already read, e.g. the entries of a dataset, see DatasetReader
+    public void createAstsOfSources(Stream<AstCreator.Source> sources, Path outputPath, AstConfig config) {
+        createAsts(sources, AstCreator.Source::getInputPath,
+                (source, onFinished) -> AstCreator.createAst(source, outputPath, config, onFinished), config);
+    }
+
+    // createAst calls back with whether all outputs of the input were written, see AstCreator.createAst
+    private <T> void createAsts(Stream<T> inputs, Function<T, Path> pathOf, BiConsumer<T, Consumer<Boolean>> createAst,
+                                AstConfig config) {
+        ExecutorService executor = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxPendingFiles));
+        Deque<PendingAst> pendingAsts = new ArrayDeque<>();
+        Deque<PendingAst> unreported = new ArrayDeque<>(); // done, but with outputs that are not written yet
+
+        try {
+            Iterator<T> iterator = inputs.iterator();
+            while (iterator.hasNext()) {
+                T input = iterator.next();
+                if (pendingAsts.size() >= maxPendingFiles) { // wait for the oldest file before queueing more work
+                    awaitAndReport(pendingAsts.poll(), unreported, config.isPerFileLogging());
+                }
+                CompletableFuture<Boolean> finished = new CompletableFuture<>();
+                pendingAsts.add(new PendingAst(pathOf.apply(input),
+                        executor.submit(() -> createAst.accept(input, finished::complete)), finished));
+            }
+
+            while (!pendingAsts.isEmpty()) {
+                awaitAndReport(pendingAsts.poll(), unreported, config.isPerFileLogging());
+            }
+            reportFinished(unreported, config.isPerFileLogging());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Progress is printed by the submitting thread in input order, so the output looks the same as in sequential mode.
+    // A file is only reported as generated once its outputs are written, which can be after later files are done when
+    // another thread writes them.
+    private void awaitAndReport(PendingAst pendingAst, Deque<PendingAst> unreported, boolean perFileLogging) {
+        String fileName = pendingAst.path().getFileName().toString();
+        if (perFileLogging) {
+            System.out.println("Creating AST for " + fileName);
+        }
+        try {
+            pendingAst.future().get();
+        } catch (ExecutionException e) {
+            System.err.println("An error occurred while creating AST for " + fileName + " Message: " + e.getCause());
+            pendingAst.finished().complete(false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for AST of " + fileName);
+        }
+        unreported.add(pendingAst);
+        while (!unreported.isEmpty() && unreported.peek().finished().isDone()) {
+            report(unreported.poll(), perFileLogging);
+        }
+    }
+
+    // waits for the outputs of the files that are not reported yet
+    private void reportFinished(Deque<PendingAst> unreported, boolean perFileLogging) {
+        while (!unreported.isEmpty()) {
+            report(unreported.poll(), perFileLogging);
+        }
+    }
+
+    private void report(PendingAst pendingAst, boolean perFileLogging) {
+        if (pendingAst.finished().join() && perFileLogging) {
+            System.out.println("Generated AST for " + pendingAst.path().getFileName());
+        }
+    }
+
+    private record PendingAst(Path path, Future<?> future, CompletableFuture<Boolean> finished) {
+    }
+}
@@ -0,0 +1,87 @@
+package com.berkebakar.AstCreator;
+
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.FileASTRequestor;
+
+import java.util.Arrays;
+import java.util.Map;
+
+// Reusable ASTParser together with the compiler options it needs, both created once.
+// ASTParser is not thread-safe, so a session must only be used by the thread that created it.
+public class ParserSession {
+    private final ASTParser parser;
+    private final Map<String, String> compilerOptions;
+    private final AstConfig.ParseMode parseMode;
+
+    public ParserSession(AstConfig.ParseMode parseMode) {
+        this.parser = ASTParser.newParser(AST.JLS19);
+        this.parseMode = parseMode;
+
+        this.compilerOptions = JavaCore.getOptions();
+        compilerOptions.put(JavaCore.COMPILER_SOURCE, JavaCore.VERSION_17);
+        compilerOptions.put(JavaCore.COMPILER_COMPLIANCE, JavaCore.VERSION_17);
+        compilerOptions.put(JavaCore.COMPILER_CODEGEN_TARGET_PLATFORM, JavaCore.VERSION_17);
+        if (parseMode == AstConfig.ParseMode.SYNTAX) { // doc comments are not used by the visitor
+            compilerOptions.put(JavaCore.COMPILER_DOC_COMMENT_SUPPORT, JavaCore.DISABLED);
+        }
+    }
+
+    public AstConfig.ParseMode getParseMode() {
+        return parseMode;
+    }
+
+    // unitName is the file name of a compilation unit, JDT needs it to resolve bindings of K_COMPILATION_UNIT sources
+    public ASTNode parse(char[] source, int kind, String unitName) {
+        return parse(source, source.length, kind, unitName);
+    }
+
+    // only the first length chars of source are parsed, so a reused buffer can be passed
+    public ASTNode parse(char[] source, int length, int kind, String unitName) {
+        if (kind == ASTParser.K_COMPILATION_UNIT && length < source.length) { // JDT ignores the source range of compilation units
+            source = Arrays.copyOf(source, length);
+        }
+        // ASTParser goes back to its defaults after every createAST call, so the settings are applied for each source
+        parser.setSource(source);
+        parser.setSourceRange(0, length);
+        parser.setCompilerOptions(compilerOptions);
+        if (parseMode == AstConfig.ParseMode.BINDINGS) {
+            parser.setResolveBindings(true);
+            parser.setBindingsRecovery(true);
+            if (kind == ASTParser.K_COMPILATION_UNIT) { // resolve against the running JRE only
+                parser.setUnitName(unitName);
+                parser.setEnvironment(null, null, null, true);
+            }
+        } else { // no bindings or recovered statements are used by the visitor
+            parser.setResolveBindings(false);
+            parser.setBindingsRecovery(false);
+            parser.setStatementsRecovery(false);
+        }
+        parser.setKind(kind);
+
+        return parser.createAST(null);
+    }
+
+    // parses whole UTF-8 Java files in one call, so JDT sets up the compiler and its name environment once for all of
+    // them, and with parse.mode=bindings also resolves references between the files. Each compilation unit is handed
+    // to the requestor as soon as it is ready, the requestor is not called for files that cannot be read.
+    public void parseFiles(String[] sourceFilePaths, FileASTRequestor requestor) {
+        parser.setCompilerOptions(compilerOptions);
+        parser.setKind(ASTParser.K_COMPILATION_UNIT);
+        if (parseMode == AstConfig.ParseMode.BINDINGS) {
+            parser.setResolveBindings(true);
+            parser.setBindingsRecovery(true);
+        } else {
+            parser.setResolveBindings(false);
+            parser.setBindingsRecovery(false);
+            parser.setStatementsRecovery(false);
+        }
+        parser.setEnvironment(null, null, null, true);
+        String[] encodings = new String[sourceFilePaths.length];
+        Arrays.fill(encodings, "UTF-8");
+
+        parser.createASTs(sourceFilePaths, encodings, new String[0], requestor, null);
+    }
+}
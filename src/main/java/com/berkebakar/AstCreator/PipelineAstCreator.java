@@ -0,0 +1,203 @@
+package com.berkebakar.AstCreator;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Runs the stages of AstCreator on separate threads with pipeline.ioThreads > 0: reader threads load the files,
+// worker threads parse, visit and render them and writer threads write the outputs, so the processors keep working
+// while files are read or written on slow (network) file systems. The stages are connected by bounded queues, a slow
+// stage blocks the ones before it instead of filling the memory. Outputs are the same as with ParallelAstCreator, but
+// files finish in any order. The average depth of every queue is printed at the end of the run to show the bottleneck.
+public class PipelineAstCreator {
+    // end markers, one per thread of the next stage, compared by identity
+    private static final Path END_OF_PATHS = Path.of("");
+    private static final AstCreator.Source END_OF_SOURCES = new AstCreator.Source(END_OF_PATHS, new char[0], 0, null, List.of());
+    private static final AstCreator.RenderedAst END_OF_ASTS = new AstCreator.RenderedAst(END_OF_SOURCES, "", new byte[0], 0, null, null);
+    private static final long QUEUE_SAMPLE_MILLIS = 100;
+
+    private final int workerCount;
+    private final int ioThreadCount;
+    private final int queueCapacity;
+
+    public PipelineAstCreator(int workerCount, int ioThreadCount) {
+        this.workerCount = workerCount;
+        this.ioThreadCount = ioThreadCount;
+        this.queueCapacity = (workerCount + ioThreadCount) * 2;
+    }
+
+    public void createAsts(Stream<Path> inputPaths, Path outputPath, AstConfig config) {
+        BlockingQueue<Path> readQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<AstCreator.Source> renderQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<AstCreator.RenderedAst> writeQueue = new ArrayBlockingQueue<>(queueCapacity);
+        QueueDepths queueDepths = new QueueDepths(List.of("read", "render", "write"), List.of(readQueue, renderQueue, writeQueue));
+        StageMetrics stageMetrics = AstCreator.getStageMetrics();
+        if (stageMetrics != null) {
+            stageMetrics.addQueue("read", readQueue);
+            stageMetrics.addQueue("render", renderQueue);
+            stageMetrics.addQueue("write", writeQueue);
+        }
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pipeline-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(queueDepths::sample, 0, QUEUE_SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+
+        List<Thread> readers = start("pipeline-reader-", ioThreadCount, () -> read(readQueue, renderQueue, config));
+        List<Thread> workers = start("pipeline-worker-", workerCount, () -> render(renderQueue, writeQueue, config));
+        List<Thread> writers = start("pipeline-writer-", ioThreadCount, () -> write(writeQueue, outputPath, config));
+        boolean finished = false;
+        try {
+            Iterator<Path> iterator = inputPaths.iterator();
+            while (iterator.hasNext()) {
+                readQueue.put(iterator.next());
+            }
+            // a stage is ended after all threads of the stage before it are done, so every file passes all stages
+            end(readQueue, END_OF_PATHS, readers);
+            end(renderQueue, END_OF_SOURCES, workers);
+            end(writeQueue, END_OF_ASTS, writers);
+            finished = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while creating ASTs");
+        } finally {
+            if (!finished) { // the directory walk failed or the run was interrupted, blocked threads would never end
+                readers.forEach(Thread::interrupt);
+                workers.forEach(Thread::interrupt);
+                writers.forEach(Thread::interrupt);
+            }
+            sampler.shutdownNow();
+            if (stageMetrics != null) {
+                stageMetrics.removeQueues();
+            }
+        }
+        System.out.println(queueDepths.getSummary());
+    }
+
+    private static void read(BlockingQueue<Path> readQueue, BlockingQueue<AstCreator.Source> renderQueue, AstConfig config)
+            throws InterruptedException {
+        for (Path path = readQueue.take(); path != END_OF_PATHS; path = readQueue.take()) {
+            AstCreator.Source source;
+            try {
+                source = AstCreator.readSource(path, config);
+            } catch (Throwable e) { // a reader that died would leave the main thread blocked on the full read queue
+                System.err.println("An error occurred while reading " + path.getFileName() + " Message: " + e);
+                continue;
+            }
+            if (source == null) {
+                continue;
+            }
+            if (config.isPerFileLogging()) {
+                System.out.println("Creating AST for " + path.getFileName());
+                source.setOnFinished(() -> {
+                    if (!source.isFailed()) {
+                        System.out.println("Generated AST for " + source.getInputPath().getFileName());
+                    }
+                });
+            }
+            renderQueue.put(source);
+        }
+    }
+
+    private static void render(BlockingQueue<AstCreator.Source> renderQueue, BlockingQueue<AstCreator.RenderedAst> writeQueue,
+                               AstConfig config) throws InterruptedException {
+        for (AstCreator.Source source = renderQueue.take(); source != END_OF_SOURCES; source = renderQueue.take()) {
+            try {
+                AstCreator.renderSource(source, config, renderedAst -> {
+                    try {
+                        writeQueue.put(renderedAst);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new CancellationException("Interrupted while queueing " + renderedAst.name());
+                    }
+                });
+            } catch (CancellationException e) {
+                return;
+            } catch (RuntimeException e) { // one broken file does not stop the worker
+                System.err.println("An error occurred while creating AST for " + source.getInputPath().getFileName() + " Message: " + e);
+            }
+        }
+    }
+
+    private static void write(BlockingQueue<AstCreator.RenderedAst> writeQueue, Path outputPath, AstConfig config)
+            throws InterruptedException {
+        for (AstCreator.RenderedAst renderedAst = writeQueue.take(); renderedAst != END_OF_ASTS; renderedAst = writeQueue.take()) {
+            try {
+                AstCreator.writeAst(renderedAst, outputPath, config);
+            } catch (RuntimeException e) {
+                System.err.println("An error occurred while writing AST " + renderedAst.name() + " Message: " + e);
+            }
+        }
+    }
+
+    private static <T> void end(BlockingQueue<T> queue, T endMarker, List<Thread> threads) throws InterruptedException {
+        for (int i = 0; i < threads.size(); i++) {
+            queue.put(endMarker);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static List<Thread> start(String namePrefix, int count, Stage stage) {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    stage.run();
+                } catch (InterruptedException e) { // the run was cancelled
+                    Thread.currentThread().interrupt();
+                }
+            }, namePrefix + i);
+            thread.start();
+            threads.add(thread);
+        }
+        return threads;
+    }
+
+    private interface Stage {
+        void run() throws InterruptedException;
+    }
+
+    // average number of waiting items of each queue over the run, a full queue means the stage after it is the
+    // bottleneck and an empty one the stage before it
+    private static final class QueueDepths {
+        private final List<String> names;
+        private final List<BlockingQueue<?>> queues;
+        private final long[] totals;
+        private long sampleCount;
+
+        QueueDepths(List<String> names, List<BlockingQueue<?>> queues) {
+            this.names = names;
+            this.queues = queues;
+            this.totals = new long[queues.size()];
+        }
+
+        synchronized void sample() {
+            for (int i = 0; i < queues.size(); i++) {
+                totals[i] += queues.get(i).size();
+            }
+            sampleCount++;
+        }
+
+        synchronized String getSummary() {
+            StringBuilder summary = new StringBuilder("Pipeline queues, average depth:");
+            for (int i = 0; i < queues.size(); i++) {
+                BlockingQueue<?> queue = queues.get(i);
+                summary.append(String.format(Locale.ROOT, " %s %.1f/%d", names.get(i),
+                        sampleCount == 0 ? 0.0 : (double) totals[i] / sampleCount, queue.size() + queue.remainingCapacity()));
+            }
+            return summary.toString();
+        }
+    }
+}
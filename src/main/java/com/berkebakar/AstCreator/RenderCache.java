@@ -0,0 +1,52 @@
+package com.berkebakar.AstCreator;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Rendered outputs by AstGraph.getStructuralHash(), so getters, setters and other methods with the same filtered AST
+// are only rendered once per run. Least recently used entries are dropped when the cache grows over maxBytes.
+public class RenderCache {
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // access order
+    private long bytes = 0;
+    private long hitCount = 0;
+    private long lookupCount = 0;
+
+    public RenderCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized Entry get(String key) {
+        lookupCount++;
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hitCount++;
+        }
+        return entry;
+    }
+
+    // file is the output the data was written to, so duplicates can be linked to it, or null in shard layouts
+    public synchronized void put(String key, byte[] data, Path file) {
+        if (data.length > maxBytes) {
+            return;
+        }
+        Entry previous = entries.put(key, new Entry(data, file));
+        bytes += data.length - (previous == null ? 0 : previous.data().length);
+        Iterator<Entry> leastRecentlyUsed = entries.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= leastRecentlyUsed.next().data().length;
+            leastRecentlyUsed.remove();
+        }
+    }
+
+    public synchronized String getReport() {
+        double hitRate = lookupCount == 0 ? 0 : 100.0 * hitCount / lookupCount;
+        return String.format("Render cache: %d of %d ASTs were duplicates and not rendered again (%.1f%% hit rate).",
+                hitCount, lookupCount, hitRate);
+    }
+
+    public record Entry(byte[] data, Path file) {
+    }
+}
@@ -0,0 +1,106 @@
+package com.berkebakar.AstCreator;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Reads source bytes and decodes them straight into the char[] given to ASTParser.setSource, instead of
+// Files.readString and toCharArray, which copy every file twice. Large inputs are memory mapped, smaller ones are read
+// into a buffer of the thread that is reused. ASCII, which is most Java code, is widened byte by byte, anything else
+// goes through a UTF-8 decoder that rejects malformed input like Files.readString did.
+public final class SourceDecoder {
+    private static final long MAP_THRESHOLD = 1024 * 1024; // below this, mapping costs more than reading
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<ByteBuffer> byteBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(INITIAL_BUFFER_SIZE));
+    private static final ThreadLocal<char[]> charBuffers = ThreadLocal.withInitial(() -> new char[INITIAL_BUFFER_SIZE]);
+    private static final ThreadLocal<CharsetDecoder> decoders = ThreadLocal.withInitial(() -> StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT));
+
+    private SourceDecoder() {
+    }
+
+    // contents of a whole file, see read
+    public static ByteBuffer readFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(channel, 0, channel.size());
+        }
+    }
+
+    // size bytes at position of the channel. Large ranges are mapped, smaller ones are read into the buffer of this
+    // thread, which the next call overwrites, so they must be decoded before that.
+    public static ByteBuffer read(FileChannel channel, long position, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Source of " + size + " bytes is too large");
+        }
+        if (size >= MAP_THRESHOLD) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        }
+        ByteBuffer buffer = byteBuffers.get();
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate(Math.max((int) size, buffer.capacity() * 2));
+            byteBuffers.set(buffer);
+        }
+        buffer.clear().limit((int) size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Source ends after " + buffer.position() + " of " + size + " bytes");
+            }
+        }
+        return buffer.flip();
+    }
+
+    // UTF-8 bytes as chars from 0 to the limit of the result, bytes is not moved. With sharedBuffer the chars are
+    // in the buffer of this thread and only valid until its next decode, otherwise in a new array.
+    public static CharBuffer decode(ByteBuffer bytes, boolean sharedBuffer) throws IOException {
+        int byteCount = bytes.remaining(); // UTF-8 never has fewer bytes than UTF-16 chars
+        char[] chars = sharedBuffer ? getCharBuffer(byteCount) : new char[byteCount];
+        int start = bytes.position();
+        int ascii = 0;
+        if (bytes.hasArray()) {
+            byte[] array = bytes.array();
+            int offset = bytes.arrayOffset() + start;
+            while (ascii < byteCount && array[offset + ascii] >= 0) {
+                chars[ascii] = (char) array[offset + ascii];
+                ascii++;
+            }
+        } else {
+            while (ascii < byteCount && bytes.get(start + ascii) >= 0) {
+                chars[ascii] = (char) bytes.get(start + ascii);
+                ascii++;
+            }
+        }
+        if (ascii == byteCount) {
+            return CharBuffer.wrap(chars, 0, byteCount);
+        }
+
+        CharsetDecoder decoder = decoders.get().reset();
+        CharBuffer decoded = CharBuffer.wrap(chars, ascii, byteCount - ascii);
+        CoderResult result = decoder.decode(bytes.duplicate().position(start + ascii), decoded, true);
+        if (!result.isUnderflow()) {
+            result.throwException();
+        }
+        result = decoder.flush(decoded);
+        if (!result.isUnderflow()) {
+            result.throwException();
+        }
+        return CharBuffer.wrap(chars, 0, decoded.position());
+    }
+
+    private static char[] getCharBuffer(int size) {
+        char[] buffer = charBuffers.get();
+        if (buffer.length < size) {
+            buffer = new char[Math.max(size, buffer.length * 2)];
+            charBuffers.set(buffer);
+        }
+        return buffer;
+    }
+}
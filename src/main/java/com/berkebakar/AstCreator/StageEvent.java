@@ -0,0 +1,22 @@
+package com.berkebakar.AstCreator;
+
+import jdk.jfr.*;
+
+// JFR event of one stage of one AST with metrics.jfr=true, recorded when a flight recording is running, e.g. with
+// JAVA_OPTS=-XX:StartFlightRecording=filename=astcreator.jfr. The stage is timed by StageMetrics, so the
+// event is committed at its end and its own duration is empty, use the Stage Duration field instead.
+@Name("com.berkebakar.AstCreator.Stage")
+@Label("AST Stage")
+@Category("AstCreator4j")
+@StackTrace(false)
+public class StageEvent extends Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("Source")
+    String source;
+
+    @Label("Stage Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long stageDuration;
+}
@@ -0,0 +1,222 @@
+package com.berkebakar.AstCreator;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Timing of every stage of AstCreator with metrics.enabled=true: a progress line every metrics.intervalSeconds and
+// a summary at the end of the run, which is also written as asts.metrics.json into the output directory.
+// read, parse and visit are timed once per source file, render and write once per AST (per method in
+// parse.unit=compilationUnit). render includes the Graphviz layout and the PNG encoding, write is only file I/O.
+public class StageMetrics {
+    public static final String FILE_NAME = "asts.metrics.json";
+
+    public enum Stage {
+        READ, PARSE, VISIT, RENDER, WRITE
+    }
+
+    private final Histogram[] histograms = new Histogram[Stage.values().length];
+    private final AtomicLong fileCount = new AtomicLong();
+    private final AtomicLong astCount = new AtomicLong();
+    private final AtomicLong nodeCount = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final boolean jfrEnabled;
+    private final long startNanos = System.nanoTime();
+    private final Path outputPath;
+    private final ScheduledExecutorService reporter;
+    private final List<Queue> queues = new CopyOnWriteArrayList<>(); // of PipelineAstCreator
+
+    public StageMetrics(Path outputPath, long intervalSeconds, boolean jfrEnabled) {
+        this.outputPath = outputPath;
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+        this.jfrEnabled = jfrEnabled;
+        if (intervalSeconds > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metrics-reporter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter.scheduleAtFixedRate(() -> System.out.println(getProgress()), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        } else {
+            reporter = null;
+        }
+    }
+
+    public void record(Stage stage, long nanos, Path inputPath) {
+        histograms[stage.ordinal()].record(nanos);
+        if (jfrEnabled) {
+            StageEvent event = new StageEvent();
+            if (event.isEnabled()) {
+                event.stage = stage.name().toLowerCase(Locale.ROOT);
+                event.source = inputPath.toString();
+                event.stageDuration = nanos;
+                event.commit();
+            }
+        }
+    }
+
+    public void recordFile() {
+        fileCount.incrementAndGet();
+    }
+
+    public void recordAst(int nodes, long bytes) {
+        astCount.incrementAndGet();
+        nodeCount.addAndGet(nodes);
+        bytesWritten.addAndGet(bytes);
+    }
+
+    // the number of waiting items of the queue is shown in the progress line, a full queue means the stage after it
+    // is the bottleneck and an empty one the stage before it
+    public void addQueue(String name, BlockingQueue<?> queue) {
+        queues.add(new Queue(name, queue));
+    }
+
+    public void removeQueues() {
+        queues.clear();
+    }
+
+    // files/s, nodes/s, bytes written and the median and 99th percentile of every stage in milliseconds, followed by
+    // the depths of the pipeline queues
+    public String getProgress() {
+        double seconds = getElapsedSeconds();
+        StringBuilder progress = new StringBuilder(String.format(Locale.ROOT,
+                "Metrics: %d files, %d ASTs in %.1f s, %.1f files/s, %.0f nodes/s, %.1f MB written, p50/p99 ms:",
+                fileCount.get(), astCount.get(), seconds, fileCount.get() / seconds, nodeCount.get() / seconds,
+                bytesWritten.get() / (1024.0 * 1024.0)));
+        for (Stage stage : Stage.values()) {
+            Histogram histogram = histograms[stage.ordinal()];
+            progress.append(String.format(Locale.ROOT, " %s %.2f/%.2f", stage.name().toLowerCase(Locale.ROOT),
+                    histogram.getPercentile(0.5) / 1e6, histogram.getPercentile(0.99) / 1e6));
+        }
+        if (!queues.isEmpty()) {
+            progress.append(", queued:");
+            for (Queue queue : queues) {
+                int size = queue.queue().size();
+                progress.append(' ').append(queue.name()).append(' ').append(size).append('/')
+                        .append(size + queue.queue().remainingCapacity());
+            }
+        }
+        return progress.toString();
+    }
+
+    // stops the progress lines, prints the summary and writes it to asts.metrics.json
+    public void close() throws IOException {
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+        System.out.println(getProgress());
+
+        double seconds = getElapsedSeconds();
+        try (Writer writer = Files.newBufferedWriter(outputPath.resolve(FILE_NAME), StandardCharsets.UTF_8);
+             JsonWriter json = new JsonWriter(writer)) {
+            json.setIndent("  ");
+            json.beginObject();
+            json.name("elapsedSeconds").value(seconds);
+            json.name("files").value(fileCount.get());
+            json.name("asts").value(astCount.get());
+            json.name("nodes").value(nodeCount.get());
+            json.name("bytesWritten").value(bytesWritten.get());
+            json.name("filesPerSecond").value(fileCount.get() / seconds);
+            json.name("nodesPerSecond").value(nodeCount.get() / seconds);
+            json.name("stages").beginObject();
+            for (Stage stage : Stage.values()) {
+                Histogram histogram = histograms[stage.ordinal()];
+                json.name(stage.name().toLowerCase(Locale.ROOT)).beginObject();
+                json.name("count").value(histogram.getCount());
+                json.name("totalMillis").value(histogram.getTotal() / 1e6);
+                json.name("p50Millis").value(histogram.getPercentile(0.5) / 1e6);
+                json.name("p90Millis").value(histogram.getPercentile(0.9) / 1e6);
+                json.name("p99Millis").value(histogram.getPercentile(0.99) / 1e6);
+                json.name("maxMillis").value(histogram.getMax() / 1e6);
+                json.endObject();
+            }
+            json.endObject();
+            json.endObject();
+        }
+    }
+
+    private double getElapsedSeconds() {
+        return Math.max(System.nanoTime() - startNanos, 1) / 1e9;
+    }
+
+    private record Queue(String name, BlockingQueue<?> queue) {
+    }
+
+    // Lock free histogram of nanoseconds with 16 buckets per power of two, so percentiles are within about 6%
+    private static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(SUB_BUCKETS * (64 - SUB_BUCKET_BITS + 1));
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            long value = Math.max(nanos, 0);
+            buckets.incrementAndGet(getBucket(value));
+            count.incrementAndGet();
+            total.addAndGet(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        // values below SUB_BUCKETS have a bucket each, larger ones by their highest bit and the SUB_BUCKET_BITS below it
+        private static int getBucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int highestBit = 63 - Long.numberOfLeadingZeros(value);
+            int shift = highestBit - SUB_BUCKET_BITS;
+            return SUB_BUCKETS * (shift + 1) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+        }
+
+        // middle of the bucket
+        private static long getValue(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+            return lowest + ((1L << shift) >> 1);
+        }
+
+        long getPercentile(double percentile) {
+            long rank = (long) Math.ceil(percentile * count.get());
+            long seen = 0;
+            for (int bucket = 0; bucket < buckets.length(); bucket++) {
+                seen += buckets.get(bucket);
+                if (seen >= rank && seen > 0) {
+                    return Math.min(getValue(bucket), max.get());
+                }
+            }
+            return 0;
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        long getTotal() {
+            return total.get();
+        }
+
+        long getMax() {
+            return max.get();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.berkebakar.AstCreator;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+// Streams output files into rolling uncompressed tar shards (asts-000000.tar, asts-000001.tar, ...) in WebDataset style,
+// so a corpus does not create one file per AST. asts.manifest.csv lists the shard and entry name of each source file,
+// followed by the labels of its record with --input-manifest. WebDataset takes everything before the first "." of an
+// entry name as the sample key, so the dots of AST names become "_" and only the extension keeps its dot. Names longer
+// than the 100 bytes of a ustar header are stored in a pax header before the entry.
+// Worker threads only put finished entries into a queue, one appender thread does all file I/O in queue order and
+// tells each entry whether it was written, so its source is only finished once its bytes are in the shard.
+public class TarShardWriter implements Closeable {
+    public static final String MANIFEST_FILE_NAME = "asts.manifest.csv";
+    private static final int BLOCK_SIZE = 512;
+    private static final int NAME_LENGTH = 100; // of the name field of a ustar header
+    private static final String PAX_HEADER_NAME = "././@PaxHeader";
+    private static final int QUEUE_CAPACITY = 64; // workers only wait when the appender is this far behind
+    private static final TarEntry END_OF_ENTRIES = new TarEntry(null, null, null, null, null);
+
+    private final Path outputPath;
+    private final long maxShardBytes;
+    private final long modificationTime = System.currentTimeMillis() / 1000;
+    private final BlockingQueue<TarEntry> entries = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread appender;
+    private final BufferedWriter manifest;
+    private volatile IOException failure;
+
+    // only used by the appender thread
+    private OutputStream shard;
+    private String shardName;
+    private int shardCount = 0;
+    private long shardBytes;
+    private final List<TarEntry> unflushed = new ArrayList<>(); // written, but maybe still in a buffer
+
+    public TarShardWriter(Path outputPath, long maxShardBytes, List<String> labelColumns) throws IOException {
+        this.outputPath = outputPath;
+        this.maxShardBytes = maxShardBytes;
+        this.manifest = Files.newBufferedWriter(outputPath.resolve(MANIFEST_FILE_NAME), StandardCharsets.UTF_8);
+        manifest.write("shard,entry,source" + Csv.trailingFields(labelColumns));
+        manifest.newLine();
+
+        this.appender = new Thread(this::appendEntries, "tar-shard-appender");
+        appender.start();
+    }
+
+    // the entry is named after name and extension, labels are in the order of the label columns. onWritten is called by
+    // the appender thread with false if the entry could not be written, it is not called if append throws.
+    public void append(Path inputPath, String name, String extension, byte[] data, List<String> labels,
+                       Consumer<Boolean> onWritten) throws IOException {
+        if (failure != null) {
+            throw new IOException("Writing tar shards failed before, " + failure.getMessage());
+        }
+        String entryName = name.replace('.', '_') + extension;
+        try {
+            entries.put(new TarEntry(inputPath, entryName, data, labels, onWritten));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing " + entryName);
+        }
+    }
+
+    private void appendEntries() {
+        while (true) {
+            TarEntry entry;
+            try {
+                entry = entries.take();
+            } catch (InterruptedException e) { // close() always sends END_OF_ENTRIES, so this is not expected
+                return;
+            }
+            if (failure != null) { // keep taking entries so workers do not block, but nothing more is written
+                if (entry == END_OF_ENTRIES) {
+                    closeShard();
+                    return;
+                }
+                finish(entry, false);
+                continue;
+            }
+            try {
+                if (entry == END_OF_ENTRIES) {
+                    finishShard();
+                    manifest.flush();
+                    reportWritten();
+                    return;
+                }
+                unflushed.add(entry);
+                write(entry);
+                if (entries.isEmpty()) { // nothing is waiting, so the entries written so far are flushed and reported
+                    shard.flush();
+                    manifest.flush();
+                    reportWritten();
+                }
+            } catch (IOException | RuntimeException e) {
+                failure = e instanceof IOException ioException ? ioException : new IOException(e);
+                System.err.println("An error occurred while writing tar shard " + shardName + ": " + e.getMessage());
+                unflushed.forEach(failed -> finish(failed, false));
+                unflushed.clear();
+                if (entry == END_OF_ENTRIES) {
+                    closeShard();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void reportWritten() {
+        unflushed.forEach(written -> finish(written, true));
+        unflushed.clear();
+    }
+
+    // an exception of the callback must not end the appender, the workers would wait for it forever
+    private static void finish(TarEntry entry, boolean written) {
+        try {
+            entry.onWritten().accept(written);
+        } catch (RuntimeException e) {
+            System.err.println("An error occurred after writing " + entry.name() + " to a tar shard: " + e);
+        }
+    }
+
+    private void write(TarEntry entry) throws IOException {
+        byte[] name = entry.name().getBytes(StandardCharsets.UTF_8);
+        byte[] paxRecords = name.length > NAME_LENGTH ? paxRecord("path", entry.name()) : null;
+        long entryBytes = BLOCK_SIZE + paddedSize(entry.data().length);
+        if (paxRecords != null) {
+            entryBytes += BLOCK_SIZE + paddedSize(paxRecords.length);
+        }
+        // an entry larger than a whole shard gets a shard of its own
+        if (shard == null || (shardBytes > 0 && shardBytes + entryBytes + 2 * BLOCK_SIZE > maxShardBytes)) {
+            nextShard();
+        }
+
+        if (paxRecords != null) { // readers take the name from the pax header, the ustar name is cut off
+            shard.write(header(PAX_HEADER_NAME.getBytes(StandardCharsets.UTF_8), paxRecords.length, (byte) 'x'));
+            shard.write(paxRecords);
+            shard.write(new byte[(int) (paddedSize(paxRecords.length) - paxRecords.length)]);
+            name = Arrays.copyOf(name, NAME_LENGTH);
+        }
+        shard.write(header(name, entry.data().length, (byte) '0'));
+        shard.write(entry.data());
+        shard.write(new byte[(int) (paddedSize(entry.data().length) - entry.data().length)]);
+        shardBytes += entryBytes;
+
+        manifest.write(shardName + "," + Csv.field(entry.name()) + "," + Csv.field(entry.inputPath().toString()) + Csv.trailingFields(entry.labels()));
+        manifest.newLine();
+    }
+
+    private void nextShard() throws IOException {
+        finishShard();
+        shardName = String.format("asts-%06d.tar", shardCount++);
+        shard = new BufferedOutputStream(Files.newOutputStream(outputPath.resolve(shardName)), 1 << 20);
+        shardBytes = 0;
+    }
+
+    private void finishShard() throws IOException {
+        if (shard != null) {
+            shard.write(new byte[2 * BLOCK_SIZE]); // end of archive
+            shard.close();
+            shard = null;
+        }
+    }
+
+    // after a failure the shard is incomplete anyway, it is only closed
+    private void closeShard() {
+        if (shard != null) {
+            try {
+                shard.close();
+            } catch (IOException e) { // the first failure is the one reported
+            }
+            shard = null;
+        }
+    }
+
+    // waits until every queued entry is written and completes the last shard
+    @Override
+    public void close() throws IOException {
+        try {
+            entries.put(END_OF_ENTRIES);
+            appender.join(); // the appender completes the last shard
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for tar shards to be written");
+        }
+
+        manifest.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // POSIX ustar header of a regular file ('0') or of the pax extended header ('x') of the next entry, name is at
+    // most NAME_LENGTH bytes
+    private byte[] header(byte[] name, long size, byte type) {
+        byte[] header = new byte[BLOCK_SIZE];
+        System.arraycopy(name, 0, header, 0, name.length);
+        putString(header, 100, "0000644");
+        putString(header, 108, "0000000");
+        putString(header, 116, "0000000");
+        putString(header, 124, String.format("%011o", size));
+        putString(header, 136, String.format("%011o", modificationTime));
+        header[156] = type;
+        putString(header, 257, "ustar");
+        putString(header, 263, "00");
+
+        int checksum = 8 * ' '; // the checksum field itself counts as spaces
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        putString(header, 148, String.format("%06o", checksum));
+        header[155] = ' ';
+        return header;
+    }
+
+    // "<length> <key>=<value>\n", the length counts the whole record including its own digits
+    private static byte[] paxRecord(String key, String value) {
+        int length = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+        int recordLength = length + Integer.toString(length).length();
+        if (Integer.toString(recordLength).length() > Integer.toString(length).length()) { // e.g. 98 + 2 digits is 100
+            recordLength++;
+        }
+        return (recordLength + " " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putString(byte[] header, int offset, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+
+    private static long paddedSize(long size) {
+        return (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+    }
+
+    private record TarEntry(Path inputPath, String name, byte[] data, List<String> labels, Consumer<Boolean> onWritten) {
+    }
+}
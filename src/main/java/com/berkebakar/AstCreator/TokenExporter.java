@@ -0,0 +1,151 @@
+package com.berkebakar.AstCreator;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.function.ToIntFunction;
+
+// Writes the graph built by GraphicalAstVisitor as token ids of a Vocabulary instead of an image, for sequence
+// models. Tokens are the node labels of the other formats: the node type name, or the label of output.detailed.
+// Both formats are packed little endian int32 values without a header, the file size gives their number:
+// sbt: the structure-based traversal of the tree in pre-order, each node is "(", its token, its children, ")", its token
+// paths: code2vec path contexts, one (leaf token, path, leaf token) triple for every pair of leaves at most
+// tokens.maxPathLength edges apart with at most tokens.maxPathWidth children of their common ancestor between them.
+// A path is the node type names from one leaf up to the common ancestor (^) and down to the other leaf (_), like
+// SimpleName^MethodInvocation_StringLiteral. Pairs are ordered by the first leaf, then by how far up the path goes.
+public final class TokenExporter {
+    private TokenExporter() {
+    }
+
+    public static byte[] export(AstGraph graph, AstConfig config, Vocabulary vocabulary) {
+        int[] ids = toIds(graph, config, vocabulary::getTokenId, vocabulary::getPathId);
+        ByteBuffer buffer = ByteBuffer.allocate(4 * ids.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asIntBuffer().put(ids);
+        return buffer.array();
+    }
+
+    // the values of the output format, with the ids given by the functions. Vocabulary.Builder counts with them.
+    public static int[] toIds(AstGraph graph, AstConfig config, ToIntFunction<String> tokenIds, ToIntFunction<String> pathIds) {
+        return switch (config.getOutputFormat()) {
+            case SBT -> toSbt(graph, config, tokenIds);
+            case PATHS -> toPathContexts(graph, config, tokenIds, pathIds);
+            default -> throw new IllegalArgumentException(config.getOutputFormat() + " is not a token format");
+        };
+    }
+
+    // depth first without recursion, deep trees are not limited by budget.maxNodes by default
+    private static int[] toSbt(AstGraph graph, AstConfig config, ToIntFunction<String> tokenIds) {
+        AstGraph.Children children = graph.getChildren();
+        int[] sbt = new int[4 * graph.size()]; // 4 values per node
+        int length = 0;
+        int[] path = new int[graph.size()]; // open nodes from the root
+        int[] nextChild = new int[graph.size()];
+        for (int root = 0; root < graph.size(); root++) {
+            if (graph.getParent(root) != AstGraph.NO_PARENT) {
+                continue;
+            }
+            int depth = 0;
+            path[0] = root;
+            sbt[length++] = Vocabulary.OPEN;
+            sbt[length++] = tokenIds.applyAsInt(graph.getLabel(root, config));
+            while (depth >= 0) {
+                int node = path[depth];
+                if (nextChild[node] < children.count(node)) {
+                    int child = children.get(node, nextChild[node]++);
+                    path[++depth] = child;
+                    sbt[length++] = Vocabulary.OPEN;
+                    sbt[length++] = tokenIds.applyAsInt(graph.getLabel(child, config));
+                } else {
+                    sbt[length++] = Vocabulary.CLOSE;
+                    sbt[length++] = tokenIds.applyAsInt(graph.getLabel(node, config));
+                    depth--;
+                }
+            }
+        }
+        return sbt;
+    }
+
+    private static int[] toPathContexts(AstGraph graph, AstConfig config, ToIntFunction<String> tokenIds,
+                                        ToIntFunction<String> pathIds) {
+        AstGraph.Children children = graph.getChildren();
+        int[] childIndex = new int[graph.size()]; // position of a node among the children of its parent
+        for (int node = 0; node < graph.size(); node++) {
+            for (int i = 0; i < children.count(node); i++) {
+                childIndex[children.get(node, i)] = i;
+            }
+        }
+        PathContexts contexts = new PathContexts(graph, config, children, tokenIds, pathIds);
+        StringBuilder path = new StringBuilder();
+        for (int leaf = 0; leaf < graph.size(); leaf++) {
+            if (children.count(leaf) > 0) {
+                continue;
+            }
+            path.setLength(0);
+            path.append(contexts.name(leaf));
+            int child = leaf;
+            for (int up = 1, ancestor = graph.getParent(leaf); up < config.getMaxPathLength() && ancestor != AstGraph.NO_PARENT;
+                 up++, child = ancestor, ancestor = graph.getParent(ancestor)) {
+                path.append('^').append(contexts.name(ancestor));
+                // only leaves right of this one, so each pair is written once
+                int last = Math.min(children.count(ancestor) - 1, childIndex[child] + config.getMaxPathWidth());
+                for (int i = childIndex[child] + 1; i <= last; i++) {
+                    contexts.descend(leaf, children.get(ancestor, i), path, config.getMaxPathLength() - up);
+                }
+            }
+        }
+        return contexts.toArray();
+    }
+
+    // collects the triples of toPathContexts
+    private static final class PathContexts {
+        private final AstGraph graph;
+        private final AstConfig config;
+        private final AstGraph.Children children;
+        private final ToIntFunction<String> tokenIds;
+        private final ToIntFunction<String> pathIds;
+        private int[] values = new int[48];
+        private int length = 0;
+
+        PathContexts(AstGraph graph, AstConfig config, AstGraph.Children children, ToIntFunction<String> tokenIds,
+                     ToIntFunction<String> pathIds) {
+            this.graph = graph;
+            this.config = config;
+            this.children = children;
+            this.tokenIds = tokenIds;
+            this.pathIds = pathIds;
+        }
+
+        String name(int node) {
+            return config.getNodeStyle(graph.getType(node)).name();
+        }
+
+        // adds the contexts from leaf to the leaves below node that are at most downEdges edges down from the common
+        // ancestor, node is one edge down. path ends with the common ancestor and is the same again on return.
+        void descend(int leaf, int node, StringBuilder path, int downEdges) {
+            int pathLength = path.length();
+            path.append('_').append(name(node));
+            if (children.count(node) == 0) {
+                add(tokenIds.applyAsInt(graph.getLabel(leaf, config)), pathIds.applyAsInt(path.toString()),
+                        tokenIds.applyAsInt(graph.getLabel(node, config)));
+            } else if (downEdges > 1) {
+                for (int i = 0; i < children.count(node); i++) {
+                    descend(leaf, children.get(node, i), path, downEdges - 1);
+                }
+            }
+            path.setLength(pathLength);
+        }
+
+        void add(int sourceToken, int path, int targetToken) {
+            if (length + 3 > values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[length++] = sourceToken;
+            values[length++] = path;
+            values[length++] = targetToken;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, length);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.berkebakar.AstCreator;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// Appends the token ids of output.format=sbt and paths to one packed int32 array asts.npy, so no file is created per
+// AST: 1-dimensional for sbt, one row of 3 per path context for paths. asts.index.csv gives the first element (or row)
+// and the length of each AST in the array, its name, source file and, with --input-manifest, the labels of its record.
+// Like NpyShardWriter the ASTs are in the order files finish and numpy can load the file after close().
+public class TokenShardWriter implements Closeable {
+    private final FileChannel channel;
+    private final BufferedWriter index;
+    private final int rowBytes;
+    private final boolean rows; // paths are a 2-dimensional array
+    private long rowCount = 0;
+
+    public TokenShardWriter(Path outputPath, AstConfig.OutputFormat format, List<String> labelColumns) throws IOException {
+        this.rows = format == AstConfig.OutputFormat.PATHS;
+        this.rowBytes = rows ? 12 : 4;
+        this.channel = FileChannel.open(outputPath.resolve(NpyShardWriter.ARRAY_FILE_NAME),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.index = Files.newBufferedWriter(outputPath.resolve(NpyShardWriter.INDEX_FILE_NAME), StandardCharsets.UTF_8);
+        index.write("offset,length,name,source" + Csv.trailingFields(labelColumns));
+        index.newLine();
+    }
+
+    // ids is the output of TokenExporter.export
+    public synchronized void append(Path inputPath, String name, byte[] ids, List<String> labels) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(ids);
+        long position = NpyFormat.HEADER_LENGTH + rowCount * rowBytes;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        long length = ids.length / rowBytes;
+        index.write(rowCount + "," + length + "," + Csv.field(name) + "," + Csv.field(inputPath.toString()) + Csv.trailingFields(labels));
+        index.newLine();
+        rowCount += length;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try (channel; index) {
+            ByteBuffer header = rows ? NpyFormat.header("<i4", rowCount, 3) : NpyFormat.header("<i4", rowCount);
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package com.berkebakar.AstCreator;
+
+import guru.nidi.graphviz.attribute.Attributes;
+import guru.nidi.graphviz.attribute.ForNode;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.*;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.List;
+
+// Pure Java renderer for the trees built by GraphicalAstVisitor, used by render.engine=java.
+// Lays the tree out with a Reingold-Tilford style contour algorithm and draws it straight into a BufferedImage
+// of output.width x output.height. Like Graphviz output, the drawing is stretched to fill the whole image.
+// The image is reused between calls, so a renderer must only be used by one thread.
+public class TreeRenderer {
+    // proportions of the Graphviz defaults: 2 inch nodes, 0.25 inch nodesep, 0.5 inch ranksep, 14pt font
+    private static final double NODE_GAP = 0.125;
+    private static final double RANK_GAP = 0.25;
+    private static final double FONT_SIZE = 14.0 / 144.0;
+    private static final double MARGIN = 0.03;
+    private static final FontRenderContext FONT_RENDER_CONTEXT = new FontRenderContext(null, true, true);
+
+    private final BufferedImage image;
+    private final Graphics2D graphics;
+    private DrawStyle[] drawStyles;
+    private AstConfig drawStylesConfig;
+
+    public TreeRenderer(int width, int height) {
+        this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        this.graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+    }
+
+    public boolean hasSize(int width, int height) {
+        return image.getWidth() == width && image.getHeight() == height;
+    }
+
+    public BufferedImage render(AstGraph graph, AstConfig config) {
+        Tree tree = Tree.of(graph);
+        double[] x = new double[tree.size()];
+        int[] depth = new int[tree.size()];
+        double minX = 0;
+        double maxX = 0;
+        int maxDepth = 0;
+
+        // roots are laid out next to each other like the subtrees of an invisible root
+        Contour[] contours = layout(tree, x);
+        Contour forest = null;
+        for (int root : tree.roots()) {
+            double offset = forest == null ? 0 : forest.separationFrom(contours[root]);
+            x[root] = offset;
+            forest = forest == null ? contours[root] : forest.merge(contours[root], offset);
+        }
+        place(graph, x, depth);
+        for (int node = 0; node < tree.size(); node++) {
+            minX = Math.min(minX, x[node] - 0.5);
+            maxX = Math.max(maxX, x[node] + 0.5);
+            maxDepth = Math.max(maxDepth, depth[node]);
+        }
+
+        graphics.setColor(java.awt.Color.WHITE);
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        if (tree.size() == 0) {
+            return image;
+        }
+
+        // one unit is the size of a node
+        double unitsX = maxX - minX;
+        double unitsY = maxDepth + 1 + maxDepth * RANK_GAP;
+        double scaleX = image.getWidth() * (1 - 2 * MARGIN) / unitsX;
+        double scaleY = image.getHeight() * (1 - 2 * MARGIN) / unitsY;
+        double offsetX = image.getWidth() * MARGIN - minX * scaleX;
+        double offsetY = image.getHeight() * MARGIN;
+
+        graphics.setStroke(new BasicStroke((float) Math.max(0.5, Math.min(scaleX, scaleY) / 144.0))); // 1pt lines
+        for (int node = 0; node < tree.size(); node++) {
+            for (int i = 0; i < tree.children().count(node); i++) {
+                int child = tree.children().get(node, i);
+                drawEdge(offsetX + x[node] * scaleX, offsetY + (depth[node] * (1 + RANK_GAP) + 1) * scaleY,
+                        offsetX + x[child] * scaleX, offsetY + depth[child] * (1 + RANK_GAP) * scaleY, scaleY);
+            }
+        }
+
+        Font font = new Font(Font.SERIF, Font.PLAIN, 1).deriveFont((float) (FONT_SIZE * scaleX));
+        for (int node = 0; node < tree.size(); node++) {
+            Rectangle2D bounds = new Rectangle2D.Double(
+                    offsetX + (x[node] - 0.5) * scaleX,
+                    offsetY + depth[node] * (1 + RANK_GAP) * scaleY,
+                    scaleX, scaleY);
+            drawNode(getDrawStyle(config, graph.getType(node)), graph.getLabel(node, config), bounds, font);
+        }
+
+        return image;
+    }
+
+    // Lays out the subtree of every node relative to the node and returns the contours of the roots. Children have
+    // larger ids than their parents, so going through the nodes from the last one lays out the children of each node
+    // before the node without recursing, which deep trees would overflow the stack with. Children offsets are stored in x.
+    private Contour[] layout(Tree tree, double[] x) {
+        Contour[] contours = new Contour[tree.size()];
+        for (int node = tree.size() - 1; node >= 0; node--) {
+            int childCount = tree.children().count(node);
+            if (childCount == 0) {
+                contours[node] = Contour.leaf();
+                continue;
+            }
+
+            Contour merged = null;
+            double[] offsets = new double[childCount];
+            for (int i = 0; i < childCount; i++) {
+                int child = tree.children().get(node, i);
+                offsets[i] = merged == null ? 0 : merged.separationFrom(contours[child]);
+                merged = merged == null ? contours[child] : merged.merge(contours[child], offsets[i]);
+                contours[child] = null; // only the contours of roots and not yet merged subtrees are kept
+            }
+
+            double center = (offsets[0] + offsets[offsets.length - 1]) / 2;
+            for (int i = 0; i < childCount; i++) {
+                x[tree.children().get(node, i)] = offsets[i] - center;
+            }
+            contours[node] = merged.under(center);
+        }
+        return contours;
+    }
+
+    // turns relative child offsets into absolute positions, parents are placed before their children in id order
+    private void place(AstGraph graph, double[] x, int[] depth) {
+        for (int node = 0; node < graph.size(); node++) {
+            int parent = graph.getParent(node);
+            if (parent != AstGraph.NO_PARENT) {
+                x[node] = x[parent] + x[node];
+                depth[node] = depth[parent] + 1;
+            }
+        }
+    }
+
+    private void drawEdge(double fromX, double fromY, double toX, double toY, double scaleY) {
+        graphics.setColor(java.awt.Color.BLACK);
+        double arrowLength = scaleY * 10 / 144.0; // Graphviz arrowheads are 10pt long
+        double angle = Math.atan2(toY - fromY, toX - fromX);
+        double baseX = toX - arrowLength * Math.cos(angle);
+        double baseY = toY - arrowLength * Math.sin(angle);
+        graphics.draw(new Line2D.Double(fromX, fromY, baseX, baseY));
+
+        Path2D arrow = new Path2D.Double();
+        arrow.moveTo(toX, toY);
+        arrow.lineTo(baseX + arrowLength / 3 * Math.sin(angle), baseY - arrowLength / 3 * Math.cos(angle));
+        arrow.lineTo(baseX - arrowLength / 3 * Math.sin(angle), baseY + arrowLength / 3 * Math.cos(angle));
+        arrow.closePath();
+        graphics.fill(arrow);
+    }
+
+    private void drawNode(DrawStyle drawStyle, String label, Rectangle2D bounds, Font font) {
+        Shape shape = NodeShapes.outline(drawStyle.shapeName(), bounds);
+        if (drawStyle.fillColor() != null) {
+            graphics.setColor(drawStyle.fillColor());
+            graphics.fill(shape);
+        }
+        if (drawStyle.lineColor() != null) {
+            graphics.setColor(drawStyle.lineColor());
+            graphics.draw(shape);
+        }
+        drawLabel(label, bounds, font);
+    }
+
+    // node styles resolved to Java2D once per node type
+    private DrawStyle getDrawStyle(AstConfig config, int nodeType) {
+        if (config != drawStylesConfig) {
+            drawStyles = new DrawStyle[nodeType + 1];
+            drawStylesConfig = config;
+        }
+        if (nodeType >= drawStyles.length) {
+            drawStyles = Arrays.copyOf(drawStyles, nodeType + 1);
+        }
+        if (drawStyles[nodeType] == null) {
+            drawStyles[nodeType] = DrawStyle.of(config.getNodeStyle(nodeType));
+        }
+        return drawStyles[nodeType];
+    }
+
+    // glyphs are filled as outlines instead of drawString, the glyph cache is shared between threads
+    // and would make the antialiased pixels depend on what other threads rendered before
+    private void drawLabel(String label, Rectangle2D bounds, Font font) {
+        graphics.setColor(java.awt.Color.BLACK);
+        String[] lines = label.split("\n");
+        double lineHeight = font.getSize2D() * 1.2;
+        double y = bounds.getCenterY() - lineHeight * lines.length / 2 + font.getSize2D();
+        for (String line : lines) {
+            GlyphVector glyphs = font.createGlyphVector(FONT_RENDER_CONTEXT, line);
+            double width = glyphs.getLogicalBounds().getWidth();
+            graphics.fill(glyphs.getOutline((float) (bounds.getCenterX() - width / 2), (float) y));
+            y += lineHeight;
+        }
+    }
+
+    // left and right outline of a laid out subtree, one entry per depth, relative to the subtree root
+    private record Contour(double[] left, double[] right) {
+        static Contour leaf() {
+            return new Contour(new double[]{-0.5}, new double[]{0.5});
+        }
+
+        // how far right other must be moved so that it does not overlap this contour at any depth
+        double separationFrom(Contour other) {
+            double separation = Double.NEGATIVE_INFINITY;
+            for (int depth = 0; depth < Math.min(right.length, other.left.length); depth++) {
+                separation = Math.max(separation, right[depth] - other.left[depth] + NODE_GAP);
+            }
+            return separation;
+        }
+
+        Contour merge(Contour other, double offset) {
+            int depths = Math.max(left.length, other.left.length);
+            double[] mergedLeft = new double[depths];
+            double[] mergedRight = new double[depths];
+            for (int depth = 0; depth < depths; depth++) {
+                mergedLeft[depth] = depth < left.length ? left[depth] : other.left[depth] + offset;
+                mergedRight[depth] = depth < other.right.length ? other.right[depth] + offset : right[depth];
+            }
+            return new Contour(mergedLeft, mergedRight);
+        }
+
+        // contour of a parent centered at center above the merged contour of its children
+        Contour under(double center) {
+            double[] parentLeft = new double[left.length + 1];
+            double[] parentRight = new double[right.length + 1];
+            parentLeft[0] = -0.5;
+            parentRight[0] = 0.5;
+            for (int depth = 0; depth < left.length; depth++) {
+                parentLeft[depth + 1] = left[depth] - center;
+                parentRight[depth + 1] = right[depth] - center;
+            }
+            return new Contour(parentLeft, parentRight);
+        }
+    }
+
+    // children of every node and the nodes without a parent, in visit order
+    private record Tree(int size, AstGraph.Children children, List<Integer> roots) {
+        static Tree of(AstGraph graph) {
+            List<Integer> roots = new ArrayList<>();
+            for (int node = 0; node < graph.size(); node++) {
+                if (graph.getParent(node) == AstGraph.NO_PARENT) {
+                    roots.add(node);
+                }
+            }
+            return new Tree(graph.size(), graph.getChildren(), roots);
+        }
+    }
+
+    // Graphviz node attributes of a NodeStyle as Java2D colors, a null color is not drawn
+    private record DrawStyle(String shapeName, java.awt.Color fillColor, java.awt.Color lineColor) {
+        static DrawStyle of(AstConfig.NodeStyle nodeStyle) {
+            Attributes<ForNode> attributes = Attributes.<ForNode>attrs(List.of(nodeStyle.color(), nodeStyle.shape(), nodeStyle.style()));
+            String shapeName = Objects.toString(attributes.get("shape"), "ellipse");
+            String fillColor = Objects.toString(attributes.get("fillcolor"), null);
+            String color = Objects.toString(attributes.get("color"), null);
+            boolean filled = "filled".equals(attributes.get("style"));
+            boolean outlined = !shapeName.equals("none") && !shapeName.equals("plaintext") && !shapeName.equals("plain");
+            return new DrawStyle(
+                    shapeName,
+                    filled ? X11Colors.get(fillColor != null ? fillColor : color, java.awt.Color.LIGHT_GRAY) : null,
+                    outlined ? X11Colors.get(color, java.awt.Color.BLACK) : null
+            );
+        }
+    }
+
+    // outlines of the Graphviz node shapes inside the node bounds. Shapes without a close equivalent here
+    // (the synthetic biology shapes like promoter, terminator or ribosite) are drawn as boxes.
+    private static class NodeShapes {
+        static Shape outline(String shapeName, Rectangle2D bounds) {
+            double x = bounds.getX();
+            double y = bounds.getY();
+            double w = bounds.getWidth();
+            double h = bounds.getHeight();
+            return switch (shapeName) {
+                case "ellipse", "oval", "circle", "doublecircle", "Mcircle", "egg" -> new Ellipse2D.Double(x, y, w, h);
+                case "point" -> new Ellipse2D.Double(x + w * 0.4, y + h * 0.4, w * 0.2, h * 0.2);
+                case "triangle" -> polygon(bounds, 0.5, 0, 1, 1, 0, 1);
+                case "invtriangle" -> polygon(bounds, 0, 0, 1, 0, 0.5, 1);
+                case "diamond", "Mdiamond" -> polygon(bounds, 0.5, 0, 1, 0.5, 0.5, 1, 0, 0.5);
+                case "trapezium" -> polygon(bounds, 0.25, 0, 0.75, 0, 1, 1, 0, 1);
+                case "invtrapezium" -> polygon(bounds, 0, 0, 1, 0, 0.75, 1, 0.25, 1);
+                case "parallelogram" -> polygon(bounds, 0.25, 0, 1, 0, 0.75, 1, 0, 1);
+                case "house" -> polygon(bounds, 0.5, 0, 1, 0.35, 1, 1, 0, 1, 0, 0.35);
+                case "invhouse" -> polygon(bounds, 0, 0, 1, 0, 1, 0.65, 0.5, 1, 0, 0.65);
+                case "pentagon" -> regularPolygon(bounds, 5, 0);
+                case "hexagon" -> regularPolygon(bounds, 6, Math.PI / 6);
+                case "septagon" -> regularPolygon(bounds, 7, 0);
+                case "octagon", "doubleoctagon", "tripleoctagon" -> regularPolygon(bounds, 8, Math.PI / 8);
+                case "star" -> star(bounds);
+                case "cylinder" -> new RoundRectangle2D.Double(x, y, w, h, w * 0.2, h * 0.3);
+                case "cds", "rarrow", "rpromoter" -> polygon(bounds, 0, 0, 0.8, 0, 1, 0.5, 0.8, 1, 0, 1);
+                case "larrow", "lpromoter" -> polygon(bounds, 0.2, 0, 1, 0, 1, 1, 0.2, 1, 0, 0.5);
+                case "underline" -> new Line2D.Double(x, y + h, x + w, y + h);
+                default -> new Rectangle2D.Double(x, y, w, h);
+            };
+        }
+
+        // points are given as x, y pairs relative to the bounds
+        private static Shape polygon(Rectangle2D bounds, double... points) {
+            Path2D path = new Path2D.Double();
+            path.moveTo(bounds.getX() + points[0] * bounds.getWidth(), bounds.getY() + points[1] * bounds.getHeight());
+            for (int i = 2; i < points.length; i += 2) {
+                path.lineTo(bounds.getX() + points[i] * bounds.getWidth(), bounds.getY() + points[i + 1] * bounds.getHeight());
+            }
+            path.closePath();
+            return path;
+        }
+
+        private static Shape regularPolygon(Rectangle2D bounds, int sides, double rotation) {
+            double[] points = new double[sides * 2];
+            for (int i = 0; i < sides; i++) {
+                double angle = rotation + 2 * Math.PI * i / sides - Math.PI / 2;
+                points[2 * i] = 0.5 + 0.5 * Math.cos(angle);
+                points[2 * i + 1] = 0.5 + 0.5 * Math.sin(angle);
+            }
+            return polygon(bounds, points);
+        }
+
+        private static Shape star(Rectangle2D bounds) {
+            double[] points = new double[20];
+            for (int i = 0; i < 10; i++) {
+                double radius = i % 2 == 0 ? 0.5 : 0.2;
+                double angle = Math.PI * i / 5 - Math.PI / 2;
+                points[2 * i] = 0.5 + radius * Math.cos(angle);
+                points[2 * i + 1] = 0.5 + radius * Math.sin(angle);
+            }
+            return polygon(bounds, points);
+        }
+    }
+
+    // X11 color names as Graphviz renders them, read from x11colors.txt
+    private static class X11Colors {
+        private static final Map<String, java.awt.Color> colors = new HashMap<>();
+
+        static {
+            try (InputStream inputStream = TreeRenderer.class.getResourceAsStream("/x11colors.txt");
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(Objects.requireNonNull(inputStream), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isBlank() && !line.startsWith("#")) {
+                        String[] nameAndValue = line.split(" ");
+                        colors.put(nameAndValue[0], java.awt.Color.decode(nameAndValue[1]));
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        static java.awt.Color get(String name, java.awt.Color defaultColor) {
+            if (name == null) {
+                return defaultColor;
+            }
+            if (name.startsWith("#") && name.length() == 7) {
+                return java.awt.Color.decode(name);
+            }
+            // unknown names are drawn black, like Graphviz does
+            return colors.getOrDefault(name.toLowerCase(Locale.ROOT), java.awt.Color.BLACK);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.berkebakar.AstCreator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Integer ids of the tokens (node labels) and paths written by output.format=sbt and paths, built once over the
+// corpus by Builder. Ids are given by frequency, the most frequent token gets the first id. The first ids are reserved:
+// 0 pads arrays to the same length and is never written, 1 stands for tokens and paths that are not in the vocabulary,
+// 2 and 3 are the brackets of sbt. The vocabulary is written to asts.tokens.csv and, for paths, asts.paths.csv with
+// the id, the token or path and how often it occurs in the outputs, of the reserved ids only the unknown one is counted.
+public class Vocabulary {
+    public static final String TOKENS_FILE_NAME = "asts.tokens.csv";
+    public static final String PATHS_FILE_NAME = "asts.paths.csv";
+    public static final int PADDING = 0;
+    public static final int UNKNOWN = 1;
+    public static final int OPEN = 2;
+    public static final int CLOSE = 3;
+    private static final List<String> RESERVED_TOKENS = List.of("<pad>", "<unk>", "(", ")");
+    private static final List<String> RESERVED_PATHS = List.of("<pad>", "<unk>");
+
+    private final Entries tokens;
+    private final Entries paths;
+
+    private Vocabulary(Entries tokens, Entries paths) {
+        this.tokens = tokens;
+        this.paths = paths;
+    }
+
+    public int getTokenId(String token) {
+        return tokens.ids.getOrDefault(token, UNKNOWN);
+    }
+
+    public int getPathId(String path) {
+        return paths.ids.getOrDefault(path, UNKNOWN);
+    }
+
+    // e.g. "120 of 135 tokens, 4000 of 9000 paths", the tokens and paths found in the corpus that got an id
+    public String getSummary() {
+        return tokens.getSummary("tokens") + (paths.foundCount > 0 ? ", " + paths.getSummary("paths") : "");
+    }
+
+    // asts.paths.csv is only written if there are paths, i.e. for output.format=paths
+    public void write(Path outputPath) throws IOException {
+        tokens.write(outputPath.resolve(TOKENS_FILE_NAME));
+        if (paths.foundCount > 0) {
+            paths.write(outputPath.resolve(PATHS_FILE_NAME));
+        }
+    }
+
+    public static boolean exists(Path directory) {
+        return Files.isRegularFile(directory.resolve(TOKENS_FILE_NAME));
+    }
+
+    // the vocabulary files of an earlier run, paths are empty if it has no asts.paths.csv
+    public static Vocabulary read(Path directory) throws IOException {
+        Path pathsFile = directory.resolve(PATHS_FILE_NAME);
+        return new Vocabulary(Entries.read(directory.resolve(TOKENS_FILE_NAME), RESERVED_TOKENS),
+                Files.exists(pathsFile) ? Entries.read(pathsFile, RESERVED_PATHS) : Entries.reserved(RESERVED_PATHS));
+    }
+
+    // the tokens or paths of a vocabulary by id
+    private static final class Entries {
+        private final List<String> names = new ArrayList<>();
+        private final List<Long> counts = new ArrayList<>();
+        private final Map<String, Integer> ids = new HashMap<>();
+        private int reservedCount;
+        private int foundCount; // including the ones that did not get an id
+
+        static Entries reserved(List<String> reserved) {
+            Entries entries = new Entries();
+            for (String name : reserved) {
+                entries.names.add(name);
+                entries.counts.add(0L);
+            }
+            entries.reservedCount = reserved.size();
+            return entries;
+        }
+
+        // reserved entries are taken by id, so a token that is spelled like one of them keeps its own id
+        void add(String name, long count) {
+            ids.put(name, names.size());
+            names.add(name);
+            counts.add(count);
+        }
+
+        String getSummary(String kind) {
+            return (names.size() - reservedCount) + " of " + foundCount + " " + kind;
+        }
+
+        void write(Path file) throws IOException {
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                writer.write("id,token,count");
+                writer.newLine();
+                for (int id = 0; id < names.size(); id++) {
+                    writer.write(id + "," + Csv.field(names.get(id)) + "," + counts.get(id));
+                    writer.newLine();
+                }
+            }
+        }
+
+        static Entries read(Path file, List<String> reserved) throws IOException {
+            Entries entries = reserved(reserved);
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                List<String> header = Csv.readRecord(reader);
+                if (header == null || !header.equals(List.of("id", "token", "count"))) {
+                    throw new IOException(file + " is not a vocabulary, it needs an id,token,count header");
+                }
+                for (List<String> record = Csv.readRecord(reader); record != null; record = Csv.readRecord(reader)) {
+                    int id;
+                    long count;
+                    try {
+                        id = Integer.parseInt(record.get(0));
+                        count = Long.parseLong(record.get(2));
+                    } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                        throw new IOException(file + " has a broken record: " + record);
+                    }
+                    if (id < reserved.size()) {
+                        entries.counts.set(id, count);
+                    } else if (id == entries.names.size()) {
+                        entries.add(record.get(1), count);
+                    } else {
+                        throw new IOException(file + " has id " + id + " out of order");
+                    }
+                }
+            }
+            entries.foundCount = entries.names.size() - reserved.size();
+            return entries;
+        }
+    }
+
+    // Counts tokens and paths on the threads that create the ASTs, each thread into its own maps, so counting needs no
+    // lock. build merges the counts of all threads after they are done and keeps the most frequent of each.
+    public static final class Builder {
+        private final List<Counts> threadCounts = Collections.synchronizedList(new ArrayList<>());
+        private final ThreadLocal<Counts> counts = ThreadLocal.withInitial(() -> {
+            Counts threadCount = new Counts();
+            threadCounts.add(threadCount);
+            return threadCount;
+        });
+
+        // every token and path the AST is written with
+        public void add(AstGraph graph, AstConfig config) {
+            Counts threadCount = counts.get();
+            TokenExporter.toIds(graph, config, threadCount::countToken, threadCount::countPath);
+        }
+
+        // called after all threads are done adding
+        public Vocabulary build(int maxTokens, int maxPaths) {
+            Map<String, Long> tokenCounts = new HashMap<>();
+            Map<String, Long> pathCounts = new HashMap<>();
+            synchronized (threadCounts) {
+                for (Counts threadCount : threadCounts) {
+                    threadCount.tokens.forEach((token, count) -> tokenCounts.merge(token, count[0], Long::sum));
+                    threadCount.paths.forEach((path, count) -> pathCounts.merge(path, count[0], Long::sum));
+                }
+            }
+            return new Vocabulary(mostFrequent(tokenCounts, RESERVED_TOKENS, maxTokens),
+                    mostFrequent(pathCounts, RESERVED_PATHS, maxPaths));
+        }
+
+        // ties are ordered by name, so the same corpus always gets the same ids. The rest is counted as unknown.
+        private static Entries mostFrequent(Map<String, Long> counts, List<String> reserved, int max) {
+            List<Map.Entry<String, Long>> sorted = new ArrayList<>(counts.entrySet());
+            sorted.sort(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()).thenComparing(Map.Entry.comparingByKey()));
+            Entries entries = Entries.reserved(reserved);
+            long unknownCount = 0;
+            for (int i = 0; i < sorted.size(); i++) {
+                if (i < max) {
+                    entries.add(sorted.get(i).getKey(), sorted.get(i).getValue());
+                } else {
+                    unknownCount += sorted.get(i).getValue();
+                }
+            }
+            entries.counts.set(UNKNOWN, unknownCount);
+            entries.foundCount = sorted.size();
+            return entries;
+        }
+    }
+
+    // counts of one thread, a long[1] per key so counting does not box
+    private static final class Counts {
+        private final Map<String, long[]> tokens = new HashMap<>();
+        private final Map<String, long[]> paths = new HashMap<>();
+
+        int countToken(String token) {
+            tokens.computeIfAbsent(token, key -> new long[1])[0]++;
+            return UNKNOWN;
+        }
+
+        int countPath(String path) {
+            paths.computeIfAbsent(path, key -> new long[1])[0]++;
+            return UNKNOWN;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.berkebakar.AstCreator;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The parent of every graph node must be the graph node of its nearest JDT ancestor that is in the graph, which is
+// what the visitor computed by scanning the graph nodes for every ancestor before it kept an index of them.
+class GraphicalAstVisitorTest {
+    @Test
+    void sampleHasTheParentsOfTheAncestorScan() throws IOException {
+        String source;
+        try (InputStream inputStream = GraphicalAstVisitorTest.class.getResourceAsStream("/1.java")) {
+            source = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        for (boolean includeExpressions : new boolean[]{true, false}) {
+            assertParentsOfAncestorScan(source, includeExpressions);
+        }
+    }
+
+    @Test
+    void pathologicalMethodHasTheParentsOfTheAncestorScan() {
+        String source = SyntheticCorpus.method(SyntheticCorpus.Size.PATHOLOGICAL, 42); // about 10k AST nodes
+        for (boolean includeExpressions : new boolean[]{true, false}) {
+            int astNodes = assertParentsOfAncestorScan(source, includeExpressions);
+            assertTrue(astNodes > 9_000, "the generated method has only " + astNodes + " AST nodes");
+        }
+    }
+
+    // returns the number of AST nodes of the source
+    private static int assertParentsOfAncestorScan(String source, boolean includeExpressions) {
+        ASTNode method = new ParserSession(AstConfig.ParseMode.SYNTAX)
+                .parse(source.toCharArray(), ASTParser.K_CLASS_BODY_DECLARATIONS, null);
+        RecordingVisitor visitor = new RecordingVisitor(config(includeExpressions));
+        method.accept(visitor);
+        visitor.recordEmitted();
+        AstGraph graph = visitor.getGraph();
+
+        assertEquals(visitor.emitted.size(), graph.size());
+        assertTrue(graph.size() > 1, "nothing to compare, the graph has " + graph.size() + " nodes");
+        for (int node = 0; node < graph.size(); node++) {
+            ASTNode astNode = visitor.emitted.get(node);
+            assertEquals(astNode.getNodeType(), graph.getType(node));
+            assertEquals(scanForParent(visitor.emitted, astNode), graph.getParent(node),
+                    "parent of " + astNode.getClass().getSimpleName() + " " + node);
+        }
+        return visitor.visitedCount;
+    }
+
+    // the nearest JDT ancestor that is in the graph, by scanning all graph nodes for every ancestor
+    private static int scanForParent(List<ASTNode> emitted, ASTNode node) {
+        for (ASTNode ancestor = node.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+            for (int id = 0; id < emitted.size(); id++) {
+                if (emitted.get(id) == ancestor) {
+                    return id;
+                }
+            }
+        }
+        return AstGraph.NO_PARENT;
+    }
+
+    private static AstConfig config(boolean includeExpressions) {
+        Properties properties = new Properties();
+        try (InputStream inputStream = GraphicalAstVisitorTest.class.getResourceAsStream("/config.properties")) {
+            properties.load(inputStream);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        properties.setProperty("output.includeExpressions", Boolean.toString(includeExpressions));
+        return AstConfig.fromProperties(properties);
+    }
+
+    // Records the AST node behind every graph node. A visit adds at most the visited node and does so before the
+    // children are visited, so a node is in the graph if the graph grew between its preVisit2 and the next callback.
+    private static final class RecordingVisitor extends GraphicalAstVisitor {
+        private final List<ASTNode> emitted = new ArrayList<>();
+        private ASTNode lastVisited;
+        private int sizeBeforeVisit;
+        private int visitedCount = 0;
+
+        RecordingVisitor(AstConfig config) {
+            super(config);
+        }
+
+        @Override
+        public boolean preVisit2(ASTNode node) {
+            recordEmitted();
+            lastVisited = node;
+            sizeBeforeVisit = getGraph().size();
+            visitedCount++;
+            return super.preVisit2(node);
+        }
+
+        @Override
+        public void postVisit(ASTNode node) {
+            recordEmitted();
+            super.postVisit(node);
+        }
+
+        void recordEmitted() {
+            if (lastVisited != null && getGraph().size() > sizeBeforeVisit) {
+                emitted.add(lastVisited);
+            }
+            lastVisited = null;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.berkebakar.AstCreator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The shard must be a valid .npy file that numpy loads as rows x height x width x 3 uint8 array, with the rows in the
+// order of asts.index.csv. The header is checked like numpy.lib.format reads it.
+class NpyShardWriterTest {
+    private static final int HEIGHT = 2;
+    private static final int WIDTH = 3;
+
+    @TempDir
+    Path outputPath;
+
+    @Test
+    void rowsAndIndexRoundTrip() throws IOException {
+        List<Integer> colors = List.of(0xFFFF0000, 0xFF00FF00, 0x00000000); // opaque red, opaque green, transparent
+        try (NpyShardWriter writer = new NpyShardWriter(outputPath, HEIGHT, WIDTH, List.of("buggy"))) {
+            for (int i = 0; i < colors.size(); i++) {
+                byte[] row = writer.toRow(Path.of("Foo.java"), image(colors.get(i)));
+                writer.append(Path.of("src", "Foo.java"), "com.example.Foo.m" + i + "(int,String)_L1-2", row, List.of(String.valueOf(i)));
+            }
+        }
+
+        byte[] array = Files.readAllBytes(outputPath.resolve(NpyShardWriter.ARRAY_FILE_NAME));
+        int rowBytes = HEIGHT * WIDTH * 3;
+        assertEquals(NpyFormat.HEADER_LENGTH + colors.size() * rowBytes, array.length);
+        assertEquals("{'descr': '|u1', 'fortran_order': False, 'shape': (3, 2, 3, 3), }", readHeader(array));
+        assertArrayEquals(pixels(255, 0, 0), Arrays.copyOfRange(array, NpyFormat.HEADER_LENGTH, NpyFormat.HEADER_LENGTH + rowBytes));
+        assertArrayEquals(pixels(0, 255, 0), Arrays.copyOfRange(array, NpyFormat.HEADER_LENGTH + rowBytes, NpyFormat.HEADER_LENGTH + 2 * rowBytes));
+        assertArrayEquals(pixels(255, 255, 255), Arrays.copyOfRange(array, NpyFormat.HEADER_LENGTH + 2 * rowBytes, array.length),
+                "transparent pixels are blended onto white");
+
+        List<String> index = Files.readAllLines(outputPath.resolve(NpyShardWriter.INDEX_FILE_NAME), StandardCharsets.UTF_8);
+        assertEquals(List.of(
+                "row,name,source,buggy",
+                "0,\"com.example.Foo.m0(int,String)_L1-2\"," + Path.of("src", "Foo.java") + ",0",
+                "1,\"com.example.Foo.m1(int,String)_L1-2\"," + Path.of("src", "Foo.java") + ",1",
+                "2,\"com.example.Foo.m2(int,String)_L1-2\"," + Path.of("src", "Foo.java") + ",2"), index);
+    }
+
+    @Test
+    void emptyShardHasNoRows() throws IOException {
+        new NpyShardWriter(outputPath, HEIGHT, WIDTH, List.of()).close();
+
+        byte[] array = Files.readAllBytes(outputPath.resolve(NpyShardWriter.ARRAY_FILE_NAME));
+        assertEquals(NpyFormat.HEADER_LENGTH, array.length);
+        assertEquals("{'descr': '|u1', 'fortran_order': False, 'shape': (0, 2, 3, 3), }", readHeader(array));
+    }
+
+    @Test
+    void imageOfAnotherSizeIsRejected() throws IOException {
+        try (NpyShardWriter writer = new NpyShardWriter(outputPath, HEIGHT, WIDTH, List.of())) {
+            BufferedImage image = new BufferedImage(WIDTH + 1, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+            assertThrows(IOException.class, () -> writer.toRow(Path.of("Foo.java"), image));
+        }
+    }
+
+    @Test
+    void singleImageAndOneDimensionalShapes() {
+        byte[] npy = NpyFormat.toBytes(image(0xFF0000FF));
+        assertEquals(NpyFormat.HEADER_LENGTH + HEIGHT * WIDTH * 3, npy.length);
+        assertEquals("{'descr': '|u1', 'fortran_order': False, 'shape': (2, 3, 3), }", readHeader(npy));
+        assertArrayEquals(pixels(0, 0, 255), Arrays.copyOfRange(npy, NpyFormat.HEADER_LENGTH, npy.length));
+
+        byte[] tokens = new byte[NpyFormat.HEADER_LENGTH];
+        NpyFormat.header("<i4", 5).get(tokens);
+        assertEquals("{'descr': '<i4', 'fortran_order': False, 'shape': (5,), }", readHeader(tokens));
+    }
+
+    // the header dict after checking the magic, the version and that the data starts at a multiple of 64 bytes
+    private static String readHeader(byte[] npy) {
+        assertArrayEquals(new byte[]{(byte) 0x93, 'N', 'U', 'M', 'P', 'Y', 1, 0}, Arrays.copyOf(npy, 8));
+        int dictLength = (npy[8] & 0xFF) | (npy[9] & 0xFF) << 8;
+        assertEquals(0, (10 + dictLength) % 64);
+        String dict = new String(npy, 10, dictLength, StandardCharsets.US_ASCII);
+        assertTrue(dict.endsWith("\n"), "the header must end with a line break");
+        return dict.strip();
+    }
+
+    private static BufferedImage image(int argb) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                image.setRGB(x, y, argb);
+            }
+        }
+        return image;
+    }
+
+    private static byte[] pixels(int red, int green, int blue) {
+        byte[] pixels = new byte[HEIGHT * WIDTH * 3];
+        for (int i = 0; i < pixels.length; i += 3) {
+            pixels[i] = (byte) red;
+            pixels[i + 1] = (byte) green;
+            pixels[i + 2] = (byte) blue;
+        }
+        return pixels;
+    }
+}
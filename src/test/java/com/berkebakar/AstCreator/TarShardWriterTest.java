@@ -0,0 +1,188 @@
+package com.berkebakar.AstCreator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Shards are read back block by block like tar does, so the headers, checksums, pax records, padding and end of
+// archive blocks are checked, and long names also with the tar reader of DatasetReader.
+class TarShardWriterTest {
+    private static final int BLOCK_SIZE = 512;
+
+    @TempDir
+    Path outputPath;
+
+    @Test
+    void entriesRoundTripWithLongNames() throws IOException {
+        String longName = "com.example." + "VeryLongTypeName.".repeat(8) + "method(int,String[])_L10-25";
+        Map<String, Boolean> written = new ConcurrentHashMap<>();
+        try (TarShardWriter writer = new TarShardWriter(outputPath, 1024 * 1024, List.of("buggy"))) {
+            writer.append(Path.of("Foo.java"), "com.example.Foo.a()_L1-1", ".java", source("a"), List.of("0"),
+                    result -> written.put("a", result));
+            writer.append(Path.of("Foo.java"), longName, ".java", source("b"), List.of("1"),
+                    result -> written.put("b", result));
+        }
+
+        String longEntryName = longName.replace('.', '_') + ".java";
+        assertTrue(longEntryName.getBytes(StandardCharsets.UTF_8).length > 100, "the name must need a pax header");
+        assertEquals(Map.of("a", true, "b", true), written);
+        List<TarFile> files = readTar(outputPath.resolve("asts-000000.tar"));
+        assertEquals(List.of("com_example_Foo_a()_L1-1.java", longEntryName), files.stream().map(TarFile::name).toList());
+        assertArrayEquals(source("a"), files.get(0).data());
+        assertArrayEquals(source("b"), files.get(1).data());
+
+        AstConfig config = AstConfig.fromProperties(new Properties());
+        try (Stream<AstCreator.Source> sources = DatasetReader.read(outputPath.resolve("asts-000000.tar"), config)) {
+            assertEquals(List.of("com_example_Foo_a()_L1-1.java", longEntryName),
+                    sources.map(source -> source.getInputPath().getFileName().toString()).toList());
+        }
+
+        assertEquals(List.of(
+                "shard,entry,source,buggy",
+                "asts-000000.tar,com_example_Foo_a()_L1-1.java,Foo.java,0",
+                "asts-000000.tar,\"" + longEntryName + "\",Foo.java,1"),
+                Files.readAllLines(outputPath.resolve(TarShardWriter.MANIFEST_FILE_NAME), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void shardsAreSplitBeforeTheyGetTooLarge() throws IOException {
+        long maxShardBytes = 8 * BLOCK_SIZE; // two entries of a header and two data blocks and the end of archive
+        List<byte[]> data = new ArrayList<>();
+        try (TarShardWriter writer = new TarShardWriter(outputPath, maxShardBytes, List.of())) {
+            for (int i = 0; i < 5; i++) {
+                byte[] entry = new byte[600 + i];
+                Arrays.fill(entry, (byte) ('a' + i));
+                data.add(entry);
+                writer.append(Path.of("Foo.java"), "Foo.m" + i + "()_L1-1", ".png", entry, List.of(), result -> {
+                });
+            }
+        }
+
+        List<String> manifest = new ArrayList<>();
+        List<TarFile> files = new ArrayList<>();
+        for (int shard = 0; shard < 3; shard++) {
+            Path shardPath = outputPath.resolve(String.format("asts-%06d.tar", shard));
+            assertTrue(Files.size(shardPath) <= maxShardBytes, shardPath + " is larger than the shard size");
+            for (TarFile file : readTar(shardPath)) {
+                files.add(file);
+                manifest.add(shardPath.getFileName() + "," + file.name() + ",Foo.java");
+            }
+        }
+        assertTrue(Files.notExists(outputPath.resolve("asts-000003.tar")));
+        assertEquals(List.of("Foo_m0()_L1-1.png", "Foo_m1()_L1-1.png", "Foo_m2()_L1-1.png", "Foo_m3()_L1-1.png", "Foo_m4()_L1-1.png"),
+                files.stream().map(TarFile::name).toList());
+        for (int i = 0; i < data.size(); i++) {
+            assertArrayEquals(data.get(i), files.get(i).data());
+        }
+
+        manifest.add(0, "shard,entry,source");
+        assertEquals(manifest, Files.readAllLines(outputPath.resolve(TarShardWriter.MANIFEST_FILE_NAME), StandardCharsets.UTF_8));
+    }
+
+    // the regular files of an archive with the names of their pax headers, checks every header and the end of archive
+    private static List<TarFile> readTar(Path path) throws IOException {
+        byte[] tar = Files.readAllBytes(path);
+        assertEquals(0, tar.length % BLOCK_SIZE);
+        List<TarFile> files = new ArrayList<>();
+        String paxPath = null;
+        int position = 0;
+        while (!isZero(tar, position, BLOCK_SIZE)) {
+            byte[] header = Arrays.copyOfRange(tar, position, position + BLOCK_SIZE);
+            assertEquals(parseOctal(header, 148, 8), checksum(header), "checksum of the header at " + position);
+            assertEquals("ustar", readString(header, 257, 6));
+            int size = (int) parseOctal(header, 124, 12);
+            byte[] data = Arrays.copyOfRange(tar, position + BLOCK_SIZE, position + BLOCK_SIZE + size);
+            int paddedSize = (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+            assertTrue(isZero(tar, position + BLOCK_SIZE + size, paddedSize - size), "padding after " + position);
+            position += BLOCK_SIZE + paddedSize;
+
+            if (header[156] == 'x') {
+                paxPath = parsePaxPath(new String(data, StandardCharsets.UTF_8));
+            } else {
+                assertEquals('0', header[156]);
+                String name = readString(header, 0, 100);
+                if (paxPath != null) {
+                    assertTrue(paxPath.startsWith(name), "the ustar name is the start of the pax path");
+                    name = paxPath;
+                    paxPath = null;
+                }
+                files.add(new TarFile(name, data));
+            }
+        }
+        assertEquals(tar.length, position + 2 * BLOCK_SIZE, "the archive ends with two empty blocks");
+        assertTrue(isZero(tar, position, 2 * BLOCK_SIZE));
+        return files;
+    }
+
+    // checks that the length of every record counts the whole record
+    private static String parsePaxPath(String records) {
+        String path = null;
+        for (int start = 0; start < records.length(); ) {
+            int length = Integer.parseInt(records.substring(start, records.indexOf(' ', start)));
+            String record = new String(Arrays.copyOfRange(records.substring(start).getBytes(StandardCharsets.UTF_8), 0, length),
+                    StandardCharsets.UTF_8);
+            assertTrue(record.endsWith("\n"), "pax record " + record);
+            String keyValue = record.substring(record.indexOf(' ') + 1, record.length() - 1);
+            if (keyValue.startsWith("path=")) {
+                path = keyValue.substring("path=".length());
+            }
+            start += record.length();
+        }
+        return path;
+    }
+
+    private static long checksum(byte[] header) {
+        long checksum = 0;
+        for (int i = 0; i < header.length; i++) {
+            checksum += i >= 148 && i < 156 ? ' ' : header[i] & 0xFF;
+        }
+        return checksum;
+    }
+
+    private static long parseOctal(byte[] block, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length && block[i] != 0 && block[i] != ' '; i++) {
+            value = value * 8 + (block[i] - '0');
+        }
+        return value;
+    }
+
+    private static String readString(byte[] block, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && block[end] != 0) {
+            end++;
+        }
+        return new String(block, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isZero(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] source(String method) {
+        return ("void " + method + "() {}\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private record TarFile(String name, byte[] data) {
+    }
+}